@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+/**
+ * Converts decimal numbers (see {@link Representiatons#NUM}), optionally
+ * with a sign and an exponent as in {@code -1.5e-3}, to doubles without
+ * creating strings.
+ * <p>
+ * A number with at most 15 significant digits and at most 22 digits after
+ * the decimal point once the exponent is applied, which covers nearly all
+ * numbers written by people and most written by programs, is converted with
+ * one multiplication or division of two doubles that are both exact, so the
+ * result is correctly rounded.
+ * Other numbers are handed to {@link Double#parseDouble(String)}.
+ *
+ * @author Andreas Halle
+ */
+final class Decimal {
+    /* Powers of ten that are exact as doubles */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    /* Significant digits that always fit exactly in a double */
+    private static final int DIGITS = 15;
+    
+    /* Exponents are read up to this size; larger ones are out of range */
+    private static final int EXPONENT = 1000;
+    
+    
+    
+    private Decimal() {
+    }
+    
+    
+    
+    /**
+     * Convert the number in {@code s[from]} up to {@code s[to]}, which must
+     * match {@link Representiatons#NUM}, optionally with a sign and an
+     * exponent.
+     */
+    static double parse(char[] s, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (s[i] == '-' || s[i] == '+') negative = s[i++] == '-';
+        
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            char c = s[i];
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c == 'e' || c == 'E') break;
+            if (mantissa == 0 && c == '0') {
+                if (fraction) scale++;
+                continue;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if (fraction) scale++;
+            if (++digits > DIGITS) return slow(s, from, to);
+        }
+        if (mantissa == 0) return negative ? -0.0 : 0.0;
+        
+        if (i < to) {
+            boolean small = s[++i] == '-';
+            if (s[i] == '-' || s[i] == '+') i++;
+            int exponent = 0;
+            for (; i < to && exponent < EXPONENT; i++) {
+                exponent = exponent * 10 + (s[i] - '0');
+            }
+            scale += small ? exponent : -exponent;
+        }
+        
+        double v;
+        if (scale >= 0 && scale < POWERS.length) {
+            v = mantissa / POWERS[scale];
+        } else if (scale < 0 && -scale < POWERS.length) {
+            v = mantissa * POWERS[-scale];
+        } else {
+            return slow(s, from, to);
+        }
+        return negative ? -v : v;
+    }
+    
+    
+    
+    /**
+     * Convert the number in {@code s[from]} up to {@code s[to]}, which must
+     * match {@link Representiatons#NUM} as ASCII characters, optionally with
+     * a sign and an exponent.
+     */
+    static double parse(byte[] s, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (s[i] == '-' || s[i] == '+') negative = s[i++] == '-';
+        
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            byte c = s[i];
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c == 'e' || c == 'E') break;
+            if (mantissa == 0 && c == '0') {
+                if (fraction) scale++;
+                continue;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if (fraction) scale++;
+            if (++digits > DIGITS) return slow(s, from, to);
+        }
+        if (mantissa == 0) return negative ? -0.0 : 0.0;
+        
+        if (i < to) {
+            boolean small = s[++i] == '-';
+            if (s[i] == '-' || s[i] == '+') i++;
+            int exponent = 0;
+            for (; i < to && exponent < EXPONENT; i++) {
+                exponent = exponent * 10 + (s[i] - '0');
+            }
+            scale += small ? exponent : -exponent;
+        }
+        
+        double v;
+        if (scale >= 0 && scale < POWERS.length) {
+            v = mantissa / POWERS[scale];
+        } else if (scale < 0 && -scale < POWERS.length) {
+            v = mantissa * POWERS[-scale];
+        } else {
+            return slow(s, from, to);
+        }
+        return negative ? -v : v;
+    }
+    
+    
+    
+    private static double slow(char[] s, int from, int to) {
+        return Double.parseDouble(new String(s, from, to - from));
+    }
+    
+    
+    
+    private static double slow(byte[] s, int from, int to) {
+        return Double.parseDouble(new String(s, from, to - from));
+    }
+}
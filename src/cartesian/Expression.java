@@ -0,0 +1,877 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+import java.util.Arrays;
+
+/**
+ * A compiled expression in one variable, x, as returned by
+ * {@link Parser#parse(String)}.
+ * <p>
+ * An expression is a tree of nodes, one class for every operator and
+ * function, so evaluating it is a handful of virtual calls and arithmetic on
+ * primitive doubles. Nothing is looked up by name and nothing is allocated.
+ * Parts of the expression that do not depend on x are computed once, when
+ * the expression is compiled.
+ * <p>
+ * Expressions are immutable and may be evaluated by any number of threads at
+ * the same time.
+ *
+ * @author Andreas Halle
+ */
+public abstract class Expression implements Function {
+    /* Number of values evaluate(double[], double[]) works on at a time */
+    private static final int BLOCK = 1024;
+    
+    /*
+     * Blocks of BLOCK values kept by every thread for
+     * evaluate(double[], double[]): x, the value, and the scratch blocks of
+     * the expression with the most registers evaluated so far
+     */
+    private static final ThreadLocal<double[][]> BLOCKS =
+            new ThreadLocal<double[][]>();
+    
+    
+    
+    Expression() {
+    }
+    
+    
+    
+    /**
+     * Evaluate the expression.
+     *
+     * @param x
+     *        Value of the variable x.
+     * @return
+     *         the value of the expression.
+     */
+    public abstract double evaluate(double x);
+    
+    
+    
+    /**
+     * Evaluate the expression for many values of x at once.
+     * <p>
+     * This gives the same results as calling {@link #evaluate(double)} for
+     * every value, but is faster for more than a few values. The values are
+     * taken in blocks, and every operator and function is applied to a whole
+     * block in a simple loop before the next one, in reverse Polish order.
+     * Such loops are cheap to run and can be vectorized by the JIT compiler.
+     * <p>
+     * The blocks are allocated the first time a thread evaluates an
+     * expression this way, 8 KB for x, the value and every value kept while
+     * an operand is computed, and reused by the thread after that.
+     *
+     * @param xs
+     *        Values of the variable x.
+     * @param out
+     *        Array to store the value of the expression for {@code xs[i]} in,
+     *        at index {@code i}. May be the same array as {@code xs}.
+     */
+    public void evaluate(double[] xs, double[] out) {
+        if (out.length < xs.length) {
+            String e = "out must be at least as long as xs.";
+            throw new IllegalArgumentException(e);
+        }
+        
+        int registers = registers();
+        double[][] temps = BLOCKS.get();
+        if (temps == null || temps.length < registers + 2) {
+            temps = new double[registers + 2][BLOCK];
+            BLOCKS.set(temps);
+        }
+        double[] x = temps[registers];
+        double[] v = temps[registers + 1];
+        for (int offset = 0; offset < xs.length; offset += BLOCK) {
+            int n = Math.min(BLOCK, xs.length - offset);
+            System.arraycopy(xs, offset, x, 0, n);
+            evaluate(x, n, v, temps, 0);
+            System.arraycopy(v, 0, out, offset, n);
+        }
+    }
+    
+    
+    
+    /*
+     * Store the value of the expression for x[i] in out[i], for i below n.
+     * temps[depth] and up may be used as scratch space.
+     */
+    abstract void evaluate(double[] x, int n, double[] out, double[][] temps,
+                           int depth);
+    
+    
+    
+    /*
+     * Return the number of scratch arrays evaluate(double[], int, ...)
+     * needs: one for every value kept while the other operand of a binary
+     * operator is computed.
+     */
+    int registers() {
+        return 0;
+    }
+    
+    
+    
+    /* Return true if the value of the expression does not depend on x. */
+    boolean isConstant() {
+        return false;
+    }
+    
+    
+    
+    /* Return an expression that always has the given value. */
+    static Expression constant(double value) {
+        return new Constant(value);
+    }
+    
+    
+    
+    /* Return the expression x. */
+    static Expression variable() {
+        return new Variable();
+    }
+    
+    
+    
+    /* Return -a. */
+    static Expression negate(Expression a) {
+        return fold(new Negate(a), a, a);
+    }
+    
+    
+    
+    /*
+     * Return the expression a op b, where op is one of + - * / % ^, or null
+     * if op is not an operator.
+     */
+    static Expression binary(char op, Expression a, Expression b) {
+        Expression e;
+        switch (op) {
+        case '+': e = new Add(a, b); break;
+        case '-': e = new Subtract(a, b); break;
+        case '*': e = new Multiply(a, b); break;
+        case '/': e = new Divide(a, b); break;
+        case '%': e = new Remainder(a, b); break;
+        case '^':
+            if (b.isConstant() && b.evaluate(0) == 2) e = new Square(a);
+            else e = new Power(a, b);
+            break;
+        default:
+            return null;
+        }
+        return fold(e, a, b);
+    }
+    
+    
+    
+    /* Return true if there is a function with the given name. */
+    static boolean isFunction(String name) {
+        return function(name, variable()) != null;
+    }
+    
+    
+    
+    /*
+     * Return the function with the given name applied to a, or null if there
+     * is no such function.
+     */
+    static Expression function(String name, Expression a) {
+        Expression e;
+        if (name.equals("abs")) e = new Abs(a);
+        else if (name.equals("acos")) e = new Acos(a);
+        else if (name.equals("asin")) e = new Asin(a);
+        else if (name.equals("atan")) e = new Atan(a);
+        else if (name.equals("ceil")) e = new Ceil(a);
+        else if (name.equals("cos")) e = new Cos(a);
+        else if (name.equals("cosh")) e = new Cosh(a);
+        else if (name.equals("exp")) e = new Exp(a);
+        else if (name.equals("floor")) e = new Floor(a);
+        else if (name.equals("ln")) e = new Log(a);
+        else if (name.equals("log")) e = new Log10(a);
+        else if (name.equals("sin")) e = new Sin(a);
+        else if (name.equals("sinh")) e = new Sinh(a);
+        else if (name.equals("sqrt")) e = new Sqrt(a);
+        else if (name.equals("tan")) e = new Tan(a);
+        else if (name.equals("tanh")) e = new Tanh(a);
+        else return null;
+        return fold(e, a, a);
+    }
+    
+    
+    
+    /* Replace e with its value if its operands a and b are constant. */
+    private static Expression fold(Expression e, Expression a, Expression b) {
+        if (!a.isConstant() || !b.isConstant()) return e;
+        return new Constant(e.evaluate(0));
+    }
+    
+    
+    
+    private static final class Constant extends Expression {
+        private final double value;
+        
+        
+        
+        Constant(double value) {
+            this.value = value;
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return value;
+        }
+        
+        
+        
+        @Override
+        void evaluate(double[] x, int n, double[] out, double[][] temps,
+                      int depth) {
+            Arrays.fill(out, 0, n, value);
+        }
+        
+        
+        
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+    
+    
+    
+    private static final class Variable extends Expression {
+        @Override
+        public double evaluate(double x) {
+            return x;
+        }
+        
+        
+        
+        @Override
+        void evaluate(double[] x, int n, double[] out, double[][] temps,
+                      int depth) {
+            System.arraycopy(x, 0, out, 0, n);
+        }
+    }
+    
+    
+    
+    /* An operator or function of one operand */
+    private abstract static class Unary extends Expression {
+        final Expression a;
+        
+        
+        
+        Unary(Expression a) {
+            this.a = a;
+        }
+        
+        
+        
+        @Override
+        void evaluate(double[] x, int n, double[] out, double[][] temps,
+                      int depth) {
+            a.evaluate(x, n, out, temps, depth);
+            apply(out, n);
+        }
+        
+        
+        
+        /* Replace v[i] with the result of the operator, for i below n. */
+        abstract void apply(double[] v, int n);
+        
+        
+        
+        @Override
+        int registers() {
+            return a.registers();
+        }
+    }
+    
+    
+    
+    /* An operator of two operands */
+    private abstract static class Binary extends Expression {
+        final Expression a;
+        final Expression b;
+        
+        
+        
+        Binary(Expression a, Expression b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        
+        
+        @Override
+        void evaluate(double[] x, int n, double[] out, double[][] temps,
+                      int depth) {
+            a.evaluate(x, n, out, temps, depth);
+            double[] t = temps[depth];
+            b.evaluate(x, n, t, temps, depth + 1);
+            combine(out, t, n);
+        }
+        
+        
+        
+        /* Replace u[i] with u[i] op v[i], for i below n. */
+        abstract void combine(double[] u, double[] v, int n);
+        
+        
+        
+        @Override
+        int registers() {
+            return Math.max(a.registers(), b.registers() + 1);
+        }
+    }
+    
+    
+    
+    private static final class Negate extends Unary {
+        Negate(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return -a.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = -v[i];
+        }
+    }
+    
+    
+    
+    private static final class Add extends Binary {
+        Add(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return a.evaluate(x) + b.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = u[i] + v[i];
+        }
+    }
+    
+    
+    
+    private static final class Subtract extends Binary {
+        Subtract(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return a.evaluate(x) - b.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = u[i] - v[i];
+        }
+    }
+    
+    
+    
+    private static final class Multiply extends Binary {
+        Multiply(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return a.evaluate(x) * b.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = u[i] * v[i];
+        }
+    }
+    
+    
+    
+    private static final class Divide extends Binary {
+        Divide(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return a.evaluate(x) / b.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = u[i] / v[i];
+        }
+    }
+    
+    
+    
+    private static final class Remainder extends Binary {
+        Remainder(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return a.evaluate(x) % b.evaluate(x);
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = u[i] % v[i];
+        }
+    }
+    
+    
+    
+    private static final class Power extends Binary {
+        Power(Expression a, Expression b) {
+            super(a, b);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.pow(a.evaluate(x), b.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void combine(double[] u, double[] v, int n) {
+            for (int i = 0; i < n; i++) u[i] = Math.pow(u[i], v[i]);
+        }
+    }
+    
+    
+    
+    /* a^2, which is common enough to avoid Math.pow for */
+    private static final class Square extends Unary {
+        Square(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            double v = a.evaluate(x);
+            return v * v;
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = v[i] * v[i];
+        }
+    }
+    
+    
+    
+    private static final class Abs extends Unary {
+        Abs(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.abs(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.abs(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Acos extends Unary {
+        Acos(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.acos(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.acos(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Asin extends Unary {
+        Asin(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.asin(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.asin(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Atan extends Unary {
+        Atan(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.atan(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.atan(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Ceil extends Unary {
+        Ceil(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.ceil(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.ceil(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Cos extends Unary {
+        Cos(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.cos(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.cos(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Cosh extends Unary {
+        Cosh(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.cosh(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.cosh(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Exp extends Unary {
+        Exp(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.exp(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.exp(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Floor extends Unary {
+        Floor(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.floor(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.floor(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Log extends Unary {
+        Log(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.log(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.log(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Log10 extends Unary {
+        Log10(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.log10(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.log10(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Sin extends Unary {
+        Sin(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.sin(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.sin(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Sinh extends Unary {
+        Sinh(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.sinh(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.sinh(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Sqrt extends Unary {
+        Sqrt(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.sqrt(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.sqrt(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Tan extends Unary {
+        Tan(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.tan(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.tan(v[i]);
+        }
+    }
+    
+    
+    
+    private static final class Tanh extends Unary {
+        Tanh(Expression a) {
+            super(a);
+        }
+        
+        
+        
+        @Override
+        public double evaluate(double x) {
+            return Math.tanh(a.evaluate(x));
+        }
+        
+        
+        
+        @Override
+        void apply(double[] v, int n) {
+            for (int i = 0; i < n; i++) v[i] = Math.tanh(v[i]);
+        }
+    }
+}
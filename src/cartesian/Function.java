@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+/**
+ * A function of one variable, such as an {@link Expression} compiled by the
+ * {@link Parser}, or any other code that computes y from x.
+ *
+ * @author Andreas Halle
+ */
+public interface Function {
+    /**
+     * Return the value of the function at x.
+     *
+     * @param x
+     *        Value of the variable.
+     * @return
+     *         the value of the function, or {@code NaN} where it is not
+     *         defined.
+     */
+    double evaluate(double x);
+}
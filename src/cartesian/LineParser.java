@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import cartesian.coordinate.CCLine;
+
+/**
+ * Reads lines in slope-intercept form (see
+ * {@link Representiatons#SLOPEINTERCEPTFORM2D}), one per line of text, and
+ * creates a {@link CCLine} for each of them.
+ * <p>
+ * The text is read in a single pass, one character at a time, through a
+ * fixed buffer. Nothing is allocated for an equation but the {@code CCLine}
+ * itself, so files of millions of equations can be read about as fast as
+ * they come off the disk.
+ * <p>
+ * Besides what the grammar allows, the slope and the y-intercept may be
+ * negative, the slope may be left out as in {@code y = x + 1}, and there may
+ * be spaces anywhere between the parts of an equation. Empty lines are
+ * skipped.
+ *
+ * @author Andreas Halle
+ */
+public class LineParser {
+    private static final int BUFFER = 1 << 16;
+    
+    /* First size of the scratch space for a number; it grows as needed */
+    private static final int NUMBER = 64;
+    
+    /* Exactly one of these is the source of the text */
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final CharSequence text;
+    private int textPos;
+    
+    private final Paint paint;
+    
+    /* The text in buf[pos] up to buf[limit] has not been read yet */
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    
+    /* Offset in the text of buf[0] */
+    private long base;
+    
+    /* Offset of the equation last started */
+    private int lineStart;
+    
+    /* Scratch space for one number */
+    private char[] number;
+    
+    
+    
+    /**
+     * Create a parser for text read from a {@code Reader}. The lines will
+     * be drawn with the given paint.
+     *
+     * @param reader
+     *        Text to read.
+     * @param paint
+     *        {@code Paint} to create the lines with.
+     */
+    public LineParser(Reader reader, Paint paint) {
+        this(reader, null, null, paint);
+    }
+    
+    
+    
+    /**
+     * Create a parser for ASCII text in a buffer, such as a file mapped into
+     * memory. The text is read from the position of the buffer up to its
+     * limit. The lines will be drawn with the given paint.
+     *
+     * @param bytes
+     *        Text to read.
+     * @param paint
+     *        {@code Paint} to create the lines with.
+     */
+    public LineParser(ByteBuffer bytes, Paint paint) {
+        this(null, bytes, null, paint);
+    }
+    
+    
+    
+    /**
+     * Create a parser for text in a {@code CharSequence}. The lines will be
+     * drawn with the given paint.
+     *
+     * @param text
+     *        Text to read.
+     * @param paint
+     *        {@code Paint} to create the lines with.
+     */
+    public LineParser(CharSequence text, Paint paint) {
+        this(null, null, text, paint);
+    }
+    
+    
+    
+    private LineParser(Reader reader, ByteBuffer bytes, CharSequence text,
+                       Paint paint) {
+        this.reader = reader;
+        this.bytes = bytes;
+        this.text = text;
+        this.paint = paint;
+        buf = new char[BUFFER];
+        number = new char[NUMBER];
+    }
+    
+    
+    
+    /**
+     * Create a line from a single equation in slope-intercept form, such as
+     * {@code y = 2x + 1}. The line will be drawn in black.
+     *
+     * @param equation
+     *        Equation to parse.
+     * @return
+     *         the line.
+     * @throws ParseException
+     *         if the equation is malformed, or is followed by more text.
+     */
+    public static CCLine parse(CharSequence equation) throws ParseException {
+        LineParser parser = new LineParser(equation, Color.black);
+        try {
+            CCLine line = parser.next();
+            if (line == null) {
+                String e = "missing equation.";
+                throw new ParseException(e, equation.length());
+            }
+            if (parser.next() != null) {
+                String e = "only one equation expected.";
+                throw new ParseException(e, parser.lineStart);
+            }
+            return line;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    
+    
+    /**
+     * Read the next equation.
+     *
+     * @return
+     *         the line, or null if there are no more equations.
+     * @throws IOException
+     *         if the text cannot be read.
+     * @throws ParseException
+     *         if an equation is malformed. The error offset is the position
+     *         in the text where the problem was found, counted from where
+     *         the parser started reading, or {@code Integer.MAX_VALUE} if
+     *         the position does not fit in an int.
+     */
+    public CCLine next() throws IOException, ParseException {
+        int c;
+        while (true) {
+            skipSpaces();
+            c = peek();
+            if (c < 0) return null;
+            if (c != '\n') break;
+            pos++;
+        }
+        lineStart = offset();
+        
+        /* y = */
+        variable();
+        skipSpaces();
+        expect('=');
+        skipSpaces();
+        
+        /* mx, m*x or x */
+        double m = 1;
+        if (peek() == '-') {
+            pos++;
+            m = -1;
+            skipSpaces();
+        }
+        if (isNumber(peek())) {
+            m *= number();
+            skipSpaces();
+            if (peek() == '*') {
+                pos++;
+                skipSpaces();
+            }
+        }
+        variable();
+        skipSpaces();
+        
+        /* + b */
+        double b = 0;
+        c = peek();
+        if (c == '+' || c == '-') {
+            pos++;
+            skipSpaces();
+            if (!isNumber(peek())) fail("number expected.");
+            b = (c == '-') ? -number() : number();
+            skipSpaces();
+        }
+        
+        c = peek();
+        if (c == '\n') pos++;
+        else if (c >= 0) fail("end of line expected.");
+        
+        return new CCLine(m, b, paint);
+    }
+    
+    
+    
+    /* Read a variable: letters or underscores followed by digits. */
+    private void variable() throws IOException, ParseException {
+        if (!isLetter(peek())) fail("variable expected.");
+        while (isLetter(peek())) pos++;
+        while (isDigit(peek())) pos++;
+    }
+    
+    
+    
+    /* Read a number, which must start at the current position. */
+    private double number() throws IOException, ParseException {
+        int n = 0;
+        boolean point = false;
+        boolean digits = false;
+        while (true) {
+            int c = peek();
+            if (isDigit(c)) {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+            if (n == number.length) number = Arrays.copyOf(number, 2 * n);
+            number[n++] = (char) c;
+            pos++;
+        }
+        if (!digits) fail("malformed number.");
+        return Decimal.parse(number, 0, n);
+    }
+    
+    
+    
+    private void expect(char c) throws IOException, ParseException {
+        if (peek() != c) fail("'" + c + "' expected.");
+        pos++;
+    }
+    
+    
+    
+    /* Skip whitespace other than line breaks. */
+    private void skipSpaces() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\t' && c != '\r') return;
+            pos++;
+        }
+    }
+    
+    
+    
+    private void fail(String e) throws ParseException {
+        throw new ParseException(e, offset());
+    }
+    
+    
+    
+    /* Return the offset of the next character in the text. */
+    private int offset() {
+        return (int) Math.min(base + pos, Integer.MAX_VALUE);
+    }
+    
+    
+    
+    /* Return the next character without reading it, or -1 at the end. */
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos];
+    }
+    
+    
+    
+    /* Refill the buffer. Return false at the end of the text. */
+    private boolean fill() throws IOException {
+        base += limit;
+        pos = 0;
+        limit = 0;
+        
+        int n;
+        if (reader != null) {
+            n = reader.read(buf, 0, buf.length);
+        } else if (bytes != null) {
+            n = Math.min(bytes.remaining(), buf.length);
+            for (int i = 0; i < n; i++) buf[i] = (char) (bytes.get() & 0xff);
+        } else {
+            n = Math.min(text.length() - textPos, buf.length);
+            for (int i = 0; i < n; i++) buf[i] = text.charAt(textPos++);
+        }
+        
+        if (n <= 0) return false;
+        limit = n;
+        return true;
+    }
+    
+    
+    
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    
+    
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || c == '_';
+    }
+    
+    
+    
+    private static boolean isNumber(int c) {
+        return isDigit(c) || c == '.';
+    }
+}
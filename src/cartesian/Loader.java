@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cartesian.coordinate.CCPointCloud;
+import cartesian.coordinate.CCPolygon;
+
+/**
+ * Reads points from text files with one point per line, such as CSV files.
+ * <p>
+ * The x- and y-coordinates are the first two numbers on a line, separated by
+ * spaces, tabs, a comma or a semicolon. Any further columns are ignored, as
+ * are lines starting with {@code #} and a first line that does not start
+ * with a number, which is taken to be a header. Numbers may have a sign and
+ * an exponent, as in {@code -1.5e-3}.
+ * <p>
+ * The file is split into chunks at line breaks, and the chunks are read and
+ * parsed on all available processors at once. The numbers are converted
+ * straight from the bytes of the file, so no strings are created for them.
+ * <p>
+ * To add many polygons to a {@link cartesian.coordinate.CCSystem} at once,
+ * add them between {@code beginBatch()} and {@code endBatch()}.
+ *
+ * @author Andreas Halle
+ */
+public class Loader {
+    /* Number of bytes parsed as one piece of work */
+    private static final int CHUNK = 1 << 22;
+    
+    /* Bytes read at a time while looking for a line break */
+    private static final int PROBE = 1 << 12;
+    
+    
+    
+    private Loader() {
+    }
+    
+    
+    
+    /**
+     * Read a file of points into a point cloud.
+     *
+     * @param file
+     *        File to read.
+     * @param paint
+     *        {@code Paint} to paint the points with.
+     * @return
+     *         a point cloud with the points in the order of the file.
+     * @throws IOException
+     *         if the file cannot be read.
+     * @throws ParseException
+     *         if a line does not start with two numbers. The error offset is
+     *         the position in the file where the problem was found, or
+     *         {@code Integer.MAX_VALUE} if it does not fit in an int.
+     */
+    public static CCPointCloud readPoints(File file, Paint paint)
+            throws IOException, ParseException {
+        Chunk[] chunks = read(file);
+        
+        long total = 0;
+        for (Chunk c : chunks) total += c.size;
+        if (total > Integer.MAX_VALUE - 8) {
+            String e = "too many points in " + file + ".";
+            throw new IOException(e);
+        }
+        
+        CCPointCloud cloud = new CCPointCloud(new Paint[] { paint },
+                                              (int) total);
+        for (Chunk c : chunks) cloud.add(c.xs, c.ys, 0, c.size);
+        return cloud;
+    }
+    
+    
+    
+    /**
+     * Read a file of polygons. The points of each polygon are on consecutive
+     * lines, and the polygons are separated by empty lines.
+     *
+     * @param file
+     *        File to read.
+     * @param paint
+     *        {@code Paint} to paint the edges of the polygons with.
+     * @param fill
+     *        {@code Paint} to fill the interior of the polygons with.
+     * @param stroke
+     *        Draw the edges of the polygons with this {@code Stroke}.
+     * @return
+     *         the polygons in the order of the file.
+     * @throws IOException
+     *         if the file cannot be read.
+     * @throws ParseException
+     *         if a line does not start with two numbers, or a polygon has
+     *         less than three points. The error offset is the position in the
+     *         file where the problem was found, or {@code Integer.MAX_VALUE}
+     *         if it does not fit in an int.
+     */
+    public static CCPolygon[] readPolygons(File file, Paint paint, Paint fill,
+                                           Stroke stroke)
+            throws IOException, ParseException {
+        Chunk[] chunks = read(file);
+        List<CCPolygon> polygons = new ArrayList<CCPolygon>();
+        
+        /* The polygon being read, which may span several chunks */
+        double[] xs = new double[16];
+        double[] ys = new double[16];
+        int n = 0;
+        
+        for (Chunk c : chunks) {
+            int from = 0;
+            for (int k = 0; k <= c.breaks; k++) {
+                int to = (k < c.breaks) ? c.breakAt[k] : c.size;
+                if (n + to - from > xs.length) {
+                    int length = Math.max(xs.length * 2, n + to - from);
+                    xs = Arrays.copyOf(xs, length);
+                    ys = Arrays.copyOf(ys, length);
+                }
+                System.arraycopy(c.xs, from, xs, n, to - from);
+                System.arraycopy(c.ys, from, ys, n, to - from);
+                n += to - from;
+                from = to;
+                if (k == c.breaks) break;
+                
+                if (n > 0) {
+                    polygons.add(polygon(xs, ys, n, c.breakOffset[k],
+                                         paint, fill, stroke));
+                }
+                n = 0;
+            }
+        }
+        if (n > 0) {
+            polygons.add(polygon(xs, ys, n, file.length(), paint, fill,
+                                 stroke));
+        }
+        
+        return polygons.toArray(new CCPolygon[polygons.size()]);
+    }
+    
+    
+    
+    /* Create a polygon from the first n points, which end at the offset. */
+    private static CCPolygon polygon(double[] xs, double[] ys, int n,
+                                     long offset, Paint paint, Paint fill,
+                                     Stroke stroke) throws ParseException {
+        if (n < 3) {
+            String e = "a polygon needs at least three points.";
+            throw new ParseException(e, offset(offset));
+        }
+        return new CCPolygon(Arrays.copyOf(xs, n), Arrays.copyOf(ys, n),
+                             paint, fill, stroke);
+    }
+    
+    
+    
+    /* Split a file into chunks and parse them in parallel. */
+    private static Chunk[] read(File file) throws IOException, ParseException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            
+            /* Every chunk starts at the beginning of a line */
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            long start = 0;
+            while (start < size) {
+                long end = lineStart(channel, start + CHUNK, size);
+                if (end - start > Integer.MAX_VALUE - 8) {
+                    String e = "line too long.";
+                    throw new ParseException(e, offset(start));
+                }
+                chunks.add(new Chunk(channel, start, (int) (end - start)));
+                start = end;
+            }
+            
+            final Chunk[] tasks = chunks.toArray(new Chunk[chunks.size()]);
+            if (tasks.length == 1) {
+                tasks[0].compute();
+            } else if (tasks.length > 1) {
+                ForkJoinPool pool = new ForkJoinPool();
+                try {
+                    pool.invoke(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            invokeAll(tasks);
+                        }
+                    });
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            
+            /* Report the first problem in the file */
+            for (Chunk c : tasks) {
+                if (c.ioException != null) throw c.ioException;
+                if (c.parseException != null) throw c.parseException;
+            }
+            return tasks;
+        } finally {
+            raf.close();
+        }
+    }
+    
+    
+    
+    /*
+     * Return the offset of the first line that starts at or after the given
+     * offset, or the size of the file if there is none.
+     */
+    private static long lineStart(FileChannel channel, long offset, long size)
+            throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(PROBE);
+        for (long p = offset - 1; p < size; p += probe.limit()) {
+            probe.clear();
+            readFully(channel, probe, p, size);
+            for (int i = 0; i < probe.limit(); i++) {
+                if (probe.get(i) == '\n') return p + i + 1;
+            }
+        }
+        return size;
+    }
+    
+    
+    
+    /*
+     * Read from the offset into the buffer until it is full or the end of
+     * the file is reached, and flip it.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer,
+                                  long offset, long size) throws IOException {
+        long end = Math.min(size, offset + buffer.remaining());
+        buffer.limit(buffer.position() + (int) (end - offset));
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset);
+            if (n < 0) throw new IOException("file changed while reading.");
+            offset += n;
+        }
+        buffer.flip();
+    }
+    
+    
+    
+    private static int offset(long offset) {
+        return (int) Math.min(offset, Integer.MAX_VALUE);
+    }
+    
+    
+    
+    /**
+     * One piece of a file, starting at the beginning of a line and ending
+     * after a line break or at the end of the file. Reading and parsing a
+     * chunk does not depend on any other chunk.
+     */
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final FileChannel channel;
+        private final long start;
+        private final int length;
+        
+        /* The points read */
+        double[] xs;
+        double[] ys;
+        int size;
+        
+        /* Number of points before each empty line, and where it is */
+        int[] breakAt;
+        long[] breakOffset;
+        int breaks;
+        
+        /* The first problem found in this chunk, if any */
+        IOException ioException;
+        ParseException parseException;
+        
+        /* Bytes of the chunk and the position being parsed */
+        private byte[] buf;
+        private int pos;
+        
+        
+        
+        Chunk(FileChannel channel, long start, int length) {
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+        }
+        
+        
+        
+        @Override
+        protected void compute() {
+            buf = new byte[length];
+            int capacity = length / 16 + 16;
+            xs = new double[capacity];
+            ys = new double[capacity];
+            breakAt = new int[16];
+            breakOffset = new long[16];
+            try {
+                readFully(channel, ByteBuffer.wrap(buf), start, start + length);
+                parse();
+            } catch (IOException e) {
+                ioException = e;
+            } catch (ParseException e) {
+                parseException = e;
+            }
+            buf = null;
+        }
+        
+        
+        
+        private void parse() throws ParseException {
+            boolean header = (start == 0);
+            while (pos < length) {
+                skipSpaces();
+                if (pos == length) break;
+                
+                byte c = buf[pos];
+                if (c == '\n' || c == '\r') {
+                    addBreak();
+                    skipLine();
+                    continue;
+                }
+                if (c == '#') {
+                    skipLine();
+                    continue;
+                }
+                if (header && !isNumberStart(c)) {
+                    header = false;
+                    skipLine();
+                    continue;
+                }
+                header = false;
+                
+                double x = number();
+                skipSpaces();
+                if (pos < length && (buf[pos] == ',' || buf[pos] == ';')) {
+                    pos++;
+                    skipSpaces();
+                }
+                double y = number();
+                add(x, y);
+                skipLine();
+            }
+        }
+        
+        
+        
+        /* Read a number, which must start at the current position. */
+        private double number() throws ParseException {
+            int from = pos;
+            if (pos < length && (buf[pos] == '-' || buf[pos] == '+')) pos++;
+            
+            int digits = 0;
+            while (pos < length && isDigit(buf[pos])) {
+                pos++;
+                digits++;
+            }
+            if (pos < length && buf[pos] == '.') {
+                pos++;
+                while (pos < length && isDigit(buf[pos])) {
+                    pos++;
+                    digits++;
+                }
+            }
+            if (digits == 0) fail(from, "number expected.");
+            
+            if (pos < length && (buf[pos] == 'e' || buf[pos] == 'E')) {
+                pos++;
+                if (pos < length && (buf[pos] == '-' || buf[pos] == '+')) {
+                    pos++;
+                }
+                if (pos == length || !isDigit(buf[pos])) {
+                    fail(pos, "exponent expected.");
+                }
+                while (pos < length && isDigit(buf[pos])) pos++;
+            }
+            return Decimal.parse(buf, from, pos);
+        }
+        
+        
+        
+        private void add(double x, double y) {
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+        
+        
+        
+        private void addBreak() {
+            if (breaks == breakAt.length) {
+                breakAt = Arrays.copyOf(breakAt, breaks * 2);
+                breakOffset = Arrays.copyOf(breakOffset, breaks * 2);
+            }
+            breakAt[breaks] = size;
+            breakOffset[breaks] = start + pos;
+            breaks++;
+        }
+        
+        
+        
+        private void skipSpaces() {
+            while (pos < length && (buf[pos] == ' ' || buf[pos] == '\t')) {
+                pos++;
+            }
+        }
+        
+        
+        
+        /* Skip past the next line break. */
+        private void skipLine() {
+            while (pos < length && buf[pos] != '\n') pos++;
+            pos++;
+        }
+        
+        
+        
+        private void fail(int at, String e) throws ParseException {
+            throw new ParseException(e, offset(start + at));
+        }
+        
+        
+        
+        private static boolean isDigit(byte c) {
+            return c >= '0' && c <= '9';
+        }
+        
+        
+        
+        private static boolean isNumberStart(byte c) {
+            return isDigit(c) || c == '-' || c == '+' || c == '.';
+        }
+    }
+}
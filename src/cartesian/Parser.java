@@ -1,4 +1,115 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
 package cartesian;
 
+import java.text.ParseException;
+
+import cartesian.Shunting.Token;
+
+/**
+ * Compiles formulas like {@code y = 2*x^2 + sin(x)} into {@link Expression}s
+ * that can be evaluated quickly for many values of x.
+ * <p>
+ * A formula is an expression in the variable x, optionally preceded by a
+ * variable name (see {@link Representiatons#VAR}) and an equals sign, as in
+ * {@code y = ...} or {@code f = ...}.
+ * See {@link Shunting} for the operators that may be used. Besides x, the
+ * expression may refer to the constants {@code pi} and {@code e}, and to the
+ * functions {@code abs}, {@code acos}, {@code asin}, {@code atan},
+ * {@code ceil}, {@code cos}, {@code cosh}, {@code exp}, {@code floor},
+ * {@code ln} (natural logarithm), {@code log} (base 10), {@code sin},
+ * {@code sinh}, {@code sqrt}, {@code tan} and {@code tanh}.
+ *
+ * @author Andreas Halle
+ */
 public class Parser {
+    /**
+     * Compile a formula.
+     *
+     * @param formula
+     *        Formula to compile.
+     * @return
+     *         the compiled expression.
+     * @throws ParseException
+     *         if the formula is not well-formed, or refers to an unknown
+     *         variable or function. The error offset is the position in
+     *         {@code formula} where the problem was found.
+     */
+    public static Expression parse(String formula) throws ParseException {
+        Token[] rpn = Shunting.shunting(formula, skipLeftSide(formula));
+        
+        Expression[] stack = new Expression[rpn.length];
+        int n = 0;
+        for (Token t : rpn) {
+            switch (t.type) {
+            case Token.NUMBER:
+                stack[n++] = Expression.constant(t.value);
+                break;
+            case Token.VARIABLE:
+                stack[n++] = variable(t);
+                break;
+            case Token.FUNCTION:
+                stack[n-1] = Expression.function(t.name, stack[n-1]);
+                if (stack[n-1] == null) {
+                    String e = "unknown function '" + t.name + "'.";
+                    throw new ParseException(e, t.offset);
+                }
+                break;
+            case Shunting.NEGATE:
+                stack[n-1] = Expression.negate(stack[n-1]);
+                break;
+            default:
+                n--;
+                stack[n-1] = Expression.binary(t.type, stack[n-1], stack[n]);
+                break;
+            }
+        }
+        return stack[0];
+    }
+    
+    
+    
+    /*
+     * Return the position after "name =" at the start of a formula, or 0 if
+     * the formula does not start with a name and an equals sign.
+     */
+    private static int skipLeftSide(String formula) {
+        int n = formula.length();
+        int i = 0;
+        while (i < n && Character.isWhitespace(formula.charAt(i))) i++;
+        int end = Shunting.skipName(formula, i);
+        if (end == i) return 0;
+        i = end;
+        while (i < n && Character.isWhitespace(formula.charAt(i))) i++;
+        if (i < n && formula.charAt(i) == '=') return i + 1;
+        return 0;
+    }
+    
+    
+    
+    /* Return the expression for a variable or constant. */
+    private static Expression variable(Token t) throws ParseException {
+        if (t.name.equals("x")) return Expression.variable();
+        if (t.name.equals("pi")) return Expression.constant(Math.PI);
+        if (t.name.equals("e")) return Expression.constant(Math.E);
+        
+        String e = "unknown variable '" + t.name + "'.";
+        throw new ParseException(e, t.offset);
+    }
 }
@@ -1,9 +1,62 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
 package cartesian;
 
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts an expression in infix notation, like {@code 2*x^2 + sin(x)}, to
+ * reverse Polish notation with Dijkstra's shunting-yard algorithm.
+ * <p>
+ * The expression may contain numbers (see {@link Representiatons#NUM}),
+ * variables (see {@link Representiatons#VAR}, though uppercase letters are
+ * allowed too), the binary operators {@code + - * / % ^}, unary minus and
+ * plus, parentheses, and functions of one argument written as the name of a
+ * known function followed by an argument in parentheses. {@code ^} binds
+ * tighter than unary minus and is right-associative, so {@code -x^2} is
+ * {@code -(x^2)} and {@code 2^3^2} is {@code 2^(3^2)}. A multiplication sign
+ * may be left out before a variable, a function or a parenthesis, as in
+ * {@code 2x}, {@code 3(x + 1)} or {@code x(x + 1)}.
+ * <p>
+ * The input is read one character at a time, without regular expressions.
+ *
+ * @author Andreas Halle
+ * @see    Parser
+ */
 public class Shunting {
+    /* Operator used on the stack and in the output for unary minus */
+    static final char NEGATE = '~';
+    
+    
     
-    private int precedence(char op) {
+    /*
+     * Return the precedence of an operator. Operators with higher precedence
+     * bind tighter.
+     */
+    private static int precedence(char op) {
         switch (op) {
+        case '^':
+            return 5;
+        case NEGATE:
+            return 4;
         case '/': case '*': case '%':
             return 3;
         case '+': case '-':
@@ -14,8 +67,211 @@ public class Shunting {
     
     
     
-    private String shunting(String input) {
-        StringBuffer sb = new StringBuffer();
-        return "";
+    /**
+     * Convert the part of {@code input} from {@code start} to the end to
+     * reverse Polish notation.
+     *
+     * @throws ParseException
+     *         if the input is not a well-formed expression. The error offset
+     *         is the position in {@code input} where the problem was found.
+     */
+    static Token[] shunting(String input, int start) throws ParseException {
+        List<Token> output = new ArrayList<Token>();
+        List<Token> stack = new ArrayList<Token>();
+        
+        /* True if the last token read completes an operand */
+        boolean operand = false;
+        
+        int n = input.length();
+        int i = start;
+        while (i < n) {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (isDigit(c) || c == '.') {
+                int end = skipNumber(input, i);
+                if (end < 0) {
+                    String e = "malformed number.";
+                    throw new ParseException(e, i);
+                }
+                if (operand) {
+                    String e = "missing operator.";
+                    throw new ParseException(e, i);
+                }
+                double value = Double.parseDouble(input.substring(i, end));
+                output.add(new Token(Token.NUMBER, value, null, i));
+                operand = true;
+                i = end;
+            } else if (isLetter(c)) {
+                int end = skipName(input, i);
+                String name = input.substring(i, end);
+                
+                if (operand) operator(output, stack, '*', i);
+                if (next(input, end) == '(' && Expression.isFunction(name)) {
+                    stack.add(new Token(Token.FUNCTION, 0, name, i));
+                    operand = false;
+                } else {
+                    output.add(new Token(Token.VARIABLE, 0, name, i));
+                    operand = true;
+                }
+                i = end;
+            } else if (c == '(') {
+                if (operand) operator(output, stack, '*', i);
+                stack.add(new Token('(', 0, null, i));
+                operand = false;
+                i++;
+            } else if (c == ')') {
+                if (!operand) {
+                    String e = "missing operand.";
+                    throw new ParseException(e, i);
+                }
+                while (true) {
+                    if (stack.isEmpty()) {
+                        String e = "unmatched ')'.";
+                        throw new ParseException(e, i);
+                    }
+                    Token t = stack.remove(stack.size() - 1);
+                    if (t.type == '(') break;
+                    output.add(t);
+                }
+                if (!stack.isEmpty()
+                        && stack.get(stack.size()-1).type == Token.FUNCTION) {
+                    output.add(stack.remove(stack.size() - 1));
+                }
+                i++;
+            } else if ("+-*/%^".indexOf(c) >= 0) {
+                if (operand) {
+                    operator(output, stack, c, i);
+                    operand = false;
+                } else if (c == '-') {
+                    stack.add(new Token(NEGATE, 0, null, i));
+                } else if (c != '+') {
+                    String e = "missing operand.";
+                    throw new ParseException(e, i);
+                }
+                i++;
+            } else {
+                String e = "unexpected character '" + c + "'.";
+                throw new ParseException(e, i);
+            }
+        }
+        
+        if (!operand) {
+            String e = "missing operand.";
+            throw new ParseException(e, n);
+        }
+        while (!stack.isEmpty()) {
+            Token t = stack.remove(stack.size() - 1);
+            if (t.type == '(') {
+                String e = "unmatched '('.";
+                throw new ParseException(e, t.offset);
+            }
+            output.add(t);
+        }
+        return output.toArray(new Token[output.size()]);
+    }
+    
+    
+    
+    /*
+     * Push a binary operator, first moving the operators on the stack that
+     * bind at least as tight to the output. ^ is right-associative.
+     */
+    private static void operator(List<Token> output, List<Token> stack,
+                                 char op, int offset) {
+        int p = precedence(op);
+        while (!stack.isEmpty()) {
+            Token top = stack.get(stack.size() - 1);
+            int q = precedence(top.type);
+            if (q == 0 || q < p || (q == p && op == '^')) break;
+            output.add(stack.remove(stack.size() - 1));
+        }
+        stack.add(new Token(op, 0, null, offset));
+    }
+    
+    
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    
+    
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+    
+    
+    
+    /* Return the first character at or after i that is not whitespace. */
+    private static char next(String input, int i) {
+        while (i < input.length() && Character.isWhitespace(input.charAt(i)))
+            i++;
+        return i < input.length() ? input.charAt(i) : 0;
+    }
+    
+    
+    
+    /*
+     * Return the end of the name starting at i, or i if there is none. A
+     * name is made of letters and underscores followed by digits, as in
+     * Representiatons.VAR but with uppercase letters too.
+     */
+    static int skipName(String input, int i) {
+        int n = input.length();
+        int end = i;
+        while (end < n && isLetter(input.charAt(end))) end++;
+        if (end == i) return i;
+        while (end < n && isDigit(input.charAt(end))) end++;
+        return end;
+    }
+    
+    
+    
+    /*
+     * Return the end of the number starting at i, or -1 if there is no
+     * digit in it.
+     */
+    static int skipNumber(String input, int i) {
+        int n = input.length();
+        int digits = 0;
+        while (i < n && isDigit(input.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < n && input.charAt(i) == '.') {
+            i++;
+            while (i < n && isDigit(input.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        return digits > 0 ? i : -1;
+    }
+    
+    
+    
+    /**
+     * A number, variable, function or operator, and where it was found in
+     * the input. The type of an operator is the operator itself.
+     */
+    static final class Token {
+        static final char NUMBER = 'n';
+        static final char VARIABLE = 'v';
+        static final char FUNCTION = 'f';
+        
+        final char type;
+        final double value;
+        final String name;
+        final int offset;
+        
+        
+        
+        Token(char type, double value, String name, int offset) {
+            this.type = type;
+            this.value = value;
+            this.name = name;
+            this.offset = offset;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A list that any number of threads can append to at the same time without
+ * locking. Elements are never removed or moved.
+ * <p>
+ * Every element gets its index when it is appended, but a thread may be
+ * preempted between taking an index and storing its element. Readers
+ * therefore only see the longest run of stored elements from the start of the
+ * list (see {@link #snapshot()}), which is always a consistent view of the
+ * list at some point in time.
+ * <p>
+ * The elements are kept in chunks that double in size, so appending never
+ * copies earlier elements.
+ *
+ * @author Andreas Halle
+ */
+class AppendList<E> {
+    /* Number of elements in the first chunk; chunk k holds FIRST << k */
+    private static final int FIRST = 16;
+    private static final int CHUNKS = 26;
+
+    /* Elements in all chunks together */
+    static final int MAX_SIZE = FIRST * ((1 << CHUNKS) - 1);
+
+    private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks;
+
+    /* Number of indexes handed out */
+    private final AtomicInteger reserved;
+
+    /* Number of elements stored, in any order */
+    private final AtomicInteger stored;
+
+    /* Length of a run of stored elements from the start of the list */
+    private volatile int prefix;
+
+
+
+    AppendList() {
+        chunks = new AtomicReferenceArray<AtomicReferenceArray<E>>(CHUNKS);
+        reserved = new AtomicInteger();
+        stored = new AtomicInteger();
+    }
+
+
+
+    /**
+     * Append an element to the list.
+     */
+    void add(E e) {
+        if (e == null) throw new NullPointerException();
+
+        int i;
+        do {
+            i = reserved.get();
+            if (i == MAX_SIZE) {
+                String err = "cannot hold more than " + MAX_SIZE + " objects.";
+                throw new IllegalStateException(err);
+            }
+        } while (!reserved.compareAndSet(i, i + 1));
+
+        int k = chunk(i);
+        AtomicReferenceArray<E> c = chunks.get(k);
+        if (c == null) {
+            chunks.compareAndSet(k, null,
+                                 new AtomicReferenceArray<E>(FIRST << k));
+            c = chunks.get(k);
+        }
+        c.set(i - start(k), e);
+        stored.incrementAndGet();
+    }
+
+
+
+    /**
+     * Return element {@code i}, which must be below a value returned by
+     * {@link #snapshot()}.
+     */
+    E get(int i) {
+        int k = chunk(i);
+        return chunks.get(k).get(i - start(k));
+    }
+
+
+
+    /**
+     * Return the number of elements that have been stored. The number
+     * changes every time an append completes, so it can be used to tell
+     * whether the list has changed.
+     */
+    int version() {
+        return stored.get();
+    }
+
+
+
+    /**
+     * Return the number of elements from the start of the list that are
+     * stored and can be read with {@link #get(int)}.
+     */
+    int snapshot() {
+        int n = prefix;
+        int max = reserved.get();
+        while (n < max) {
+            int k = chunk(n);
+            AtomicReferenceArray<E> c = chunks.get(k);
+            if (c == null || c.get(n - start(k)) == null) break;
+            n++;
+        }
+        if (n > prefix) prefix = n;
+        return n;
+    }
+
+
+
+    /* Return the chunk holding element i. */
+    private static int chunk(int i) {
+        return 31 - Integer.numberOfLeadingZeros(i / FIRST + 1);
+    }
+
+
+
+    /* Return the index of the first element in chunk k. */
+    private static int start(int k) {
+        return FIRST * ((1 << k) - 1);
+    }
+}
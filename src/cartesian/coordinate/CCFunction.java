@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import cartesian.Function;
+import cartesian.Parser;
+
+/**
+ * {@code CCFunction} represents the graph of a function y = f(x) in a
+ * Cartesian coordinate system.
+ * <p>
+ * The function is sampled over the visible area only, adaptively: an
+ * interval is split in two for as long as the curve deviates visibly from a
+ * straight line over it, but never into intervals narrower than a pixel. A
+ * flat curve is drawn from a few samples, and a curve full of detail from at
+ * most one sample per pixel. Where the function is {@code NaN}, or jumps
+ * across the whole visible area from one pixel to the next, the graph is
+ * broken off.
+ * <p>
+ * The samples are computed for fixed cells of 16 pixels and kept, so that
+ * moving the visible area only samples the cells that come into view. The
+ * samples for the previous scale are kept as well, so zooming back to it
+ * does not sample again.
+ * <p>
+ * The function must always give the same value for the same x, and may be
+ * called from any thread.
+ *
+ * @author Andreas Halle
+ * @see    Parser
+ */
+public class CCFunction {
+    /* Width of a cell, in pixels */
+    private static final int CELL = 16;
+
+    /* Every cell is split at least MIN_DEPTH and at most MAX_DEPTH times */
+    private static final int MIN_DEPTH = 2;
+    private static final int MAX_DEPTH = 4;
+
+    /* Largest deviation from a straight line drawn as one, in pixels */
+    private static final double TOLERANCE = 0.25;
+
+    /* Number of cells kept for one scale */
+    private static final int MAX_CELLS = 1024;
+
+    protected final Function function;
+    protected Paint paint;
+    protected Stroke stroke;
+
+    /* Samples for the scale last drawn at and for the one before it */
+    private Samples current;
+    private Samples previous;
+
+    /* Scratch buffer for sampling one cell */
+    private double[] buffer;
+
+
+
+    /**
+     * Create the graph of a function.
+     *
+     * @param function
+     *        Function to draw.
+     * @param paint
+     *        {@code Paint} to draw the graph with.
+     * @param stroke
+     *        {@code Stroke} to draw the graph with.
+     */
+    public CCFunction(Function function, Paint paint, Stroke stroke) {
+        this.function = function;
+        this.paint = paint;
+        this.stroke = stroke;
+        buffer = new double[4 * ((1 << MAX_DEPTH) + 1)];
+    }
+
+
+
+    /**
+     * Create the graph of a function drawn with a given {@code Paint}.
+     *
+     * @param function
+     *        Function to draw.
+     * @param paint
+     *        {@code Paint} to draw the graph with.
+     */
+    public CCFunction(Function function, Paint paint) {
+        this(function, paint, new BasicStroke(1f));
+    }
+
+
+
+    /**
+     * Create the graph of a function.
+     * <p>
+     * The graph will be drawn in black.
+     *
+     * @param function
+     *        Function to draw.
+     */
+    public CCFunction(Function function) {
+        this(function, Color.black);
+    }
+
+
+
+    /**
+     * Create the graph of a formula such as {@code y = 2*x^2 + sin(x)}.
+     *
+     * @param formula
+     *        Formula to draw. See {@link Parser#parse(String)}.
+     * @param paint
+     *        {@code Paint} to draw the graph with.
+     * @throws ParseException
+     *         if the formula cannot be parsed.
+     */
+    public CCFunction(String formula, Paint paint) throws ParseException {
+        this(Parser.parse(formula), paint);
+    }
+
+
+
+    /**
+     * Return samples for at least [lo, hi] at the given scale. The visible
+     * area is span high, in System 2. The samples returned are never
+     * modified, so the caller may use them without holding the lock.
+     */
+    synchronized Samples samples(double lo, double hi, double xscale,
+                                 double yscale, double span) {
+        double width = CELL * xscale;
+        long first = (long) Math.floor(lo / width);
+        long end = (long) Math.floor(hi / width) + 1;
+
+        Samples s = current;
+        if (s == null || !s.matches(xscale, yscale, span)) {
+            s = previous;
+            previous = current;
+            if (s == null || !s.matches(xscale, yscale, span)) s = null;
+        }
+        if (s != null && s.first <= first && s.end() >= end) {
+            current = s;
+            return s;
+        }
+
+        /* Keep the cells already sampled if they border on the new ones */
+        if (s != null && s.first <= end && s.end() >= first
+                && end - first <= MAX_CELLS) {
+            long keepFirst = Math.min(first, s.first);
+            long keepEnd = Math.max(end, s.end());
+            if (keepEnd - keepFirst > MAX_CELLS) {
+                if (s.first < first) keepFirst = keepEnd - MAX_CELLS;
+                else keepEnd = keepFirst + MAX_CELLS;
+            }
+            first = keepFirst;
+            end = keepEnd;
+        }
+
+        double[][] cells = new double[(int) (end - first)][];
+        for (long c = first; c < end; c++) {
+            double[] cell = null;
+            if (s != null && c >= s.first && c < s.end()) {
+                cell = s.cells[(int) (c - s.first)];
+            } else {
+                cell = sample(c * width, (c + 1) * width, yscale, span);
+            }
+            cells[(int) (c - first)] = cell;
+        }
+
+        current = new Samples(xscale, yscale, span, first, cells);
+        return current;
+    }
+
+
+
+    /*
+     * Sample the function over [a, b], one cell. Return the samples as
+     * x, y pairs, from a to b.
+     */
+    private double[] sample(double a, double b, double yscale, double span) {
+        double fa = function.evaluate(a);
+        double fb = function.evaluate(b);
+        buffer[0] = a;
+        buffer[1] = fa;
+        int n = split(a, fa, b, fb, 0, yscale, span, 2);
+        buffer[n] = b;
+        buffer[n+1] = fb;
+        return Arrays.copyOf(buffer, n + 2);
+    }
+
+
+
+    /*
+     * Add the samples strictly between a and b to the buffer from index n,
+     * splitting [a, b] depth times already. Return the new end of the
+     * buffer. A y-coordinate of NaN breaks off the graph.
+     */
+    private int split(double a, double fa, double b, double fb, int depth,
+                      double yscale, double span, int n) {
+        double m = (a + b) / 2;
+        double fm = function.evaluate(m);
+
+        boolean flat;
+        if (isFinite(fa) && isFinite(fm) && isFinite(fb)) {
+            flat = Math.abs(fm - (fa + fb) / 2) <= TOLERANCE * yscale;
+        } else {
+            /* Find where the function stops being defined */
+            flat = Double.isNaN(fa) && Double.isNaN(fm) && Double.isNaN(fb);
+        }
+
+        if (depth + 1 < MIN_DEPTH || (!flat && depth + 1 < MAX_DEPTH)) {
+            n = split(a, fa, m, fm, depth + 1, yscale, span, n);
+            n = add(n, m, fm);
+            return split(m, fm, b, fb, depth + 1, yscale, span, n);
+        }
+
+        /* A jump across the whole visible area is a discontinuity */
+        if (!flat && Math.abs(fm - fa) > span) n = add(n, m, Double.NaN);
+        n = add(n, m, fm);
+        if (!flat && Math.abs(fb - fm) > span) n = add(n, m, Double.NaN);
+        return n;
+    }
+
+
+
+    /* Add (x, y) to the buffer at index n and return the new end. */
+    private int add(int n, double x, double y) {
+        if (n + 4 > buffer.length) buffer = Arrays.copyOf(buffer, n * 2);
+        buffer[n] = x;
+        buffer[n+1] = y;
+        return n + 2;
+    }
+
+
+
+    private static boolean isFinite(double v) {
+        return !Double.isNaN(v) && !Double.isInfinite(v);
+    }
+
+
+
+    /**
+     * The samples of a function for a run of cells at one scale. Cell
+     * {@code first + i} spans [(first + i) * width, (first + i + 1) * width)
+     * and its samples are in {@code cells[i]}, as x, y pairs that include
+     * both ends of the cell.
+     */
+    static final class Samples {
+        private final double xscale;
+        private final double yscale;
+        private final double span;
+        final double width;
+        final long first;
+        final double[][] cells;
+
+
+
+        private Samples(double xscale, double yscale, double span,
+                        long first, double[][] cells) {
+            this.xscale = xscale;
+            this.yscale = yscale;
+            this.span = span;
+            this.width = CELL * xscale;
+            this.first = first;
+            this.cells = cells;
+        }
+
+
+
+        /* Return the number of the cell after the last one. */
+        long end() {
+            return first + cells.length;
+        }
+
+
+
+        /*
+         * Return true if the samples were taken at the given scale. Moving
+         * the visible area may change the scale in the last few bits, which
+         * makes no visible difference.
+         */
+        boolean matches(double xscale, double yscale, double span) {
+            return close(this.xscale, xscale) && close(this.yscale, yscale)
+                && close(this.span, span);
+        }
+
+
+
+        private static boolean close(double a, double b) {
+            return Math.abs(a - b) <= 1e-9 * Math.abs(a);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code CCMappedSeries} represents a series of samples stored in a file,
+ * drawn as a line from each sample to the next like a {@link CCSeries}.
+ * <p>
+ * The file holds nothing but the samples, one after the other, each as its
+ * x-coordinate followed by its y-coordinate. The coordinates are either
+ * 64-bit doubles or 32-bit floats, in little-endian byte order. Bytes after
+ * the last whole sample are ignored. The x-coordinates must never decrease,
+ * as for samples recorded over time.
+ * <p>
+ * The file is mapped into memory rather than read, so a series of any size
+ * opens at once and takes no room on the heap. Drawing only reads the
+ * samples in the visible area, and the operating system only loads the parts
+ * of the file that are read. The file must not change while it is mapped.
+ *
+ * @author Andreas Halle
+ * @see    CCSystem#add(CCMappedSeries)
+ */
+public class CCMappedSeries {
+    /* Samples in every mapped part of the file but the last */
+    private static final int CHUNK_SHIFT = 26;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+    private final boolean floats;
+
+    protected Paint paint;
+    protected Stroke stroke;
+
+
+
+    /**
+     * Map a file of samples into memory.
+     *
+     * @param file
+     *        File to read the samples from.
+     * @param floats
+     *        True if the coordinates are stored as 32-bit floats, false if
+     *        they are stored as 64-bit doubles.
+     * @param paint
+     *        {@code Paint} to draw the series with.
+     * @param stroke
+     *        {@code Stroke} to draw the series with.
+     * @throws IOException
+     *         if the file cannot be opened or mapped.
+     */
+    public CCMappedSeries(File file, boolean floats, Paint paint,
+                          Stroke stroke) throws IOException {
+        this.floats = floats;
+        this.paint = paint;
+        this.stroke = stroke;
+
+        int bytes = floats ? 8 : 16;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            size = channel.size() / bytes;
+
+            /* The mappings stay valid after the channel is closed */
+            int n = (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT);
+            chunks = new ByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                long length = Math.min(size - start, CHUNK_MASK + 1L);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        start * bytes, length * bytes)
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+
+
+    /**
+     * Map a file of samples into memory. The series will be drawn with a
+     * stroke of width 1.
+     *
+     * @param file
+     *        File to read the samples from.
+     * @param floats
+     *        True if the coordinates are stored as 32-bit floats, false if
+     *        they are stored as 64-bit doubles.
+     * @param paint
+     *        {@code Paint} to draw the series with.
+     * @throws IOException
+     *         if the file cannot be opened or mapped.
+     */
+    public CCMappedSeries(File file, boolean floats, Paint paint)
+            throws IOException {
+        this(file, floats, paint, new BasicStroke(1f));
+    }
+
+
+
+    /**
+     * Return the number of samples in the series.
+     *
+     * @return
+     *         the number of samples in the series.
+     */
+    public long size() {
+        return size;
+    }
+
+
+
+    /**
+     * Return the x-coordinate of a sample.
+     *
+     * @param i
+     *        Index of the sample, from 0 to {@code size() - 1}.
+     * @return
+     *         the x-coordinate of sample {@code i}.
+     */
+    public double getX(long i) {
+        return get(i, 0);
+    }
+
+
+
+    /**
+     * Return the y-coordinate of a sample.
+     *
+     * @param i
+     *        Index of the sample, from 0 to {@code size() - 1}.
+     * @return
+     *         the y-coordinate of sample {@code i}.
+     */
+    public double getY(long i) {
+        return get(i, 1);
+    }
+
+
+
+    /*
+     * Return coordinate j of sample i. Only absolute gets are used, so any
+     * number of threads may read at the same time.
+     */
+    private double get(long i, int j) {
+        ByteBuffer chunk = chunks[(int) (i >>> CHUNK_SHIFT)];
+        int k = (int) (i & CHUNK_MASK);
+        if (floats) return chunk.getFloat(k*8 + j*4);
+        return chunk.getDouble(k*16 + j*8);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+
+/**
+ * {@code CCOverlay} is user-defined content painted on top of every other
+ * object in a Cartesian coordinate system.
+ * <p>
+ * Overlays are drawn into their own layer. The layer is redrawn when the
+ * visible area changes or when {@link CCSystem#repaintOverlays()} is called.
+ *
+ * @author Andreas Halle
+ * @see    CCSystem
+ */
+public interface CCOverlay {
+    /**
+     * Paint the overlay.
+     *
+     * @param g2d
+     *        {@code Graphics2D} to paint with. Its coordinates are in pixels,
+     *        with (0, 0) in the upper left corner of the system.
+     * @param transform
+     *        Transform from coordinates in the system to pixels.
+     */
+    void paint(Graphics2D g2d, AffineTransform transform);
+}
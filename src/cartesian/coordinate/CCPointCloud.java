@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.util.Arrays;
+
+/**
+ * {@code CCPointCloud} represents a large set of points in a Cartesian
+ * coordinate system.
+ * <p>
+ * Unlike {@link CCPoint}, the points are not objects. The coordinates are
+ * stored in two growable arrays of primitive doubles, and every point may
+ * refer to a color in a small palette of at most 256 entries. This makes it
+ * possible to draw millions of points from a single object.
+ * <p>
+ * Points may be added after the cloud has been added to a
+ * {@link CCSystem}, while the system draws it on other threads. Only one
+ * thread at a time may change the cloud. A point is published once the call
+ * that adds it returns: a thread drawing the cloud sees the points that
+ * were added before it started, and may or may not see points added while
+ * it draws.
+ *
+ * @author Andreas Halle
+ * @see    CCSystem
+ */
+public class CCPointCloud {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    protected double[] xs;
+    protected double[] ys;
+
+    /* Index into the palette for each point, null if all use palette[0] */
+    protected byte[] colors;
+    protected Paint[] palette;
+
+    /*
+     * Written after the points are stored, so a reader that reads size
+     * before the arrays finds at least size points in them, unless the
+     * arrays were trimmed or replaced in the meantime.
+     */
+    protected volatile int size;
+
+    /* The length of the sides of the square drawn at each point, in pixels */
+    protected int pointSize;
+
+    /* Bounding box of all the points */
+    protected double minX;
+    protected double minY;
+    protected double maxX;
+    protected double maxY;
+
+
+
+    /**
+     * Create an empty point cloud.
+     *
+     * @param palette
+     *        {@code Paint}s the points can be painted with. A point added
+     *        without a color index is painted with the first one.
+     * @param capacity
+     *        Initial number of points the cloud has room for.
+     */
+    public CCPointCloud(Paint[] palette, int capacity) {
+        if (palette.length == 0 || palette.length > 256) {
+            String e = "a palette must have between 1 and 256 paints.";
+            throw new IllegalArgumentException(e);
+        }
+        if (capacity < 0) {
+            String e = "capacity must be nonnegative.";
+            throw new IllegalArgumentException(e);
+        }
+
+        this.palette = palette.clone();
+        xs = new double[capacity];
+        ys = new double[capacity];
+        pointSize = 2;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+    }
+
+
+
+    /**
+     * Create an empty point cloud where every point is painted with the given
+     * {@code Paint}.
+     *
+     * @param paint
+     *        {@code Paint} to paint the points with.
+     */
+    public CCPointCloud(Paint paint) {
+        this(new Paint[] { paint }, DEFAULT_CAPACITY);
+    }
+
+
+
+    /**
+     * Create an empty point cloud.
+     * <p>
+     * The points will be painted in black.
+     */
+    public CCPointCloud() {
+        this(Color.black);
+    }
+
+
+
+    /**
+     * Add a point painted with the first {@code Paint} of the palette.
+     *
+     * @param x
+     *        x-coordinate for the location of the point.
+     * @param y
+     *        y-coordinate for the location of the point.
+     */
+    public void add(double x, double y) {
+        int n = size;
+        ensureCapacity(n + 1);
+        put(n, x, y);
+        size = n + 1;
+    }
+
+
+
+    /**
+     * Add a point painted with a given {@code Paint} of the palette.
+     *
+     * @param x
+     *        x-coordinate for the location of the point.
+     * @param y
+     *        y-coordinate for the location of the point.
+     * @param color
+     *        Index of the {@code Paint} in the palette.
+     */
+    public void add(double x, double y, int color) {
+        if (color < 0 || color >= palette.length) {
+            String e = "color index " + color + " is not in the palette.";
+            throw new IllegalArgumentException(e);
+        }
+
+        int n = size;
+        ensureCapacity(n + 1);
+        if (color != 0 && colors == null) colors = new byte[xs.length];
+        if (colors != null) colors[n] = (byte) color;
+        put(n, x, y);
+        size = n + 1;
+    }
+
+
+
+    /**
+     * Add several points painted with the first {@code Paint} of the palette.
+     *
+     * @param x
+     *        x-coordinates for the locations of the points.
+     * @param y
+     *        y-coordinates for the locations of the points.
+     * @param offset
+     *        Index of the first point to add in {@code x} and {@code y}.
+     * @param length
+     *        Number of points to add.
+     */
+    public void add(double[] x, double[] y, int offset, int length) {
+        int n = size;
+        ensureCapacity(n + length);
+        for (int i = 0; i < length; i++) put(n + i, x[offset+i], y[offset+i]);
+        size = n + length;
+    }
+
+
+
+    /**
+     * Set the size of the square drawn at each point.
+     *
+     * @param pointSize
+     *        Length of the sides of the square, in pixels.
+     */
+    public void setPointSize(int pointSize) {
+        if (pointSize < 1) {
+            String e = "point size must be at least 1 pixel.";
+            throw new IllegalArgumentException(e);
+        }
+        this.pointSize = pointSize;
+    }
+
+
+
+    /**
+     * Return the number of points in the cloud.
+     *
+     * @return
+     *         the number of points in the cloud.
+     */
+    public int size() {
+        return size;
+    }
+
+
+
+    /**
+     * Shrink the arrays holding the points to the number of points in the
+     * cloud.
+     */
+    public void trimToSize() {
+        int n = size;
+        if (xs.length == n) return;
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+        if (colors != null) colors = Arrays.copyOf(colors, n);
+    }
+
+
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0 || capacity > MAX_SIZE) {
+            String e = "a point cloud cannot hold more than "
+                     + MAX_SIZE + " points.";
+            throw new IllegalStateException(e);
+        }
+        if (capacity <= xs.length) return;
+
+        int length = (int) Math.min(Math.max(xs.length * 3L / 2 + 1, capacity),
+                                    MAX_SIZE);
+        xs = Arrays.copyOf(xs, length);
+        ys = Arrays.copyOf(ys, length);
+        if (colors != null) colors = Arrays.copyOf(colors, length);
+    }
+
+
+
+    private void put(int i, double x, double y) {
+        xs[i] = x;
+        ys[i] = y;
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+    }
+}
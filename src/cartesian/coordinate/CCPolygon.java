@@ -38,6 +38,21 @@ public class CCPolygon {
     protected Paint fill;
     protected Stroke stroke;
     
+    /* Bounding box of the points */
+    protected double minX;
+    protected double minY;
+    protected double maxX;
+    protected double maxY;
+    
+    /* The fill translated to System 1 when it is a GradientPaint */
+    Renderer.Gradient gradient;
+    
+    /* Simplified outlines for the scales the polygon was last drawn at */
+    final Outline[] outlines;
+    
+    /* The polygon drawn into an image, or null if it is not kept */
+    final PolygonImage image;
+    
     
     
     /**
@@ -57,6 +72,39 @@ public class CCPolygon {
      */
     public CCPolygon(double [] xpoints, double[] ypoints, Paint paint,
                                             Paint fill, Stroke stroke) {
+        this(xpoints, ypoints, paint, fill, stroke, false);
+    }
+    
+    
+    
+    /**
+     * Create a polygon from a set of points, optionally keeping an image of
+     * the polygon as it was last drawn. A polygon needs more than two
+     * points.
+     * <p>
+     * With the image, the polygon is drawn by copying it for as long as the
+     * system is not zoomed, for instance while it is moved with the mouse,
+     * instead of filling and stroking every edge again. This is worth it for
+     * polygons of thousands of vertices, like outlines of maps, at the cost
+     * of the memory for the image and of being drawn up to a pixel away from
+     * where the polygon is. Only polygons painted and filled with a
+     * {@code Color} are drawn from an image.
+     * 
+     * @param xpoints
+     *        x-coordinates for the points that form the polygon.
+     * @param ypoints
+     *        y-coordinates for the points that form the polygon.
+     * @param paint
+     *        {@code Paint} to paint the edges of the polygon with.
+     * @param fill
+     *        {@code Paint} to fill the interior of the polygon with.
+     * @param stroke
+     *        Draw the edges of the polygon with this {@code Stroke}.
+     * @param cached
+     *        Whether to keep an image of the polygon.
+     */
+    public CCPolygon(double [] xpoints, double[] ypoints, Paint paint,
+                     Paint fill, Stroke stroke, boolean cached) {
         if (xpoints.length != ypoints.length) {
             String e = "number of x-coordinates must match number of y"
                      + "-coordinates";
@@ -72,6 +120,19 @@ public class CCPolygon {
         this.paint = paint;
         this.fill = fill;
         this.stroke = stroke;
+        outlines = new Outline[Outline.CACHED];
+        image = cached ? new PolygonImage() : null;
+        
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xpoints.length; i++) {
+            minX = Math.min(minX, xpoints[i]);
+            maxX = Math.max(maxX, xpoints[i]);
+            minY = Math.min(minY, ypoints[i]);
+            maxY = Math.max(maxY, ypoints[i]);
+        }
     }
     
     
@@ -91,12 +152,7 @@ public class CCPolygon {
      */
     public CCPolygon(Point2D[] points, Paint paint,
                                             Paint fill, Stroke stroke) {
-        this(new double[points.length], new double[points.length], paint, fill,
-                                                                        stroke);
-        for (int i = 0; i < points.length; i++) {
-            xpoints[i] = points[i].getX();
-            ypoints[i] = points[i].getY();
-        }
+        this(xpoints(points), ypoints(points), paint, fill, stroke);
     }
     
     
@@ -132,4 +188,20 @@ public class CCPolygon {
     public CCPolygon(Point2D[] points) {
         this(points, Color.black, Color.pink, new BasicStroke(1f));
     }
-}
\ No newline at end of file
+    
+    
+    
+    private static double[] xpoints(Point2D[] points) {
+        double[] xpoints = new double[points.length];
+        for (int i = 0; i < points.length; i++) xpoints[i] = points[i].getX();
+        return xpoints;
+    }
+    
+    
+    
+    private static double[] ypoints(Point2D[] points) {
+        double[] ypoints = new double[points.length];
+        for (int i = 0; i < points.length; i++) ypoints[i] = points[i].getY();
+        return ypoints;
+    }
+}
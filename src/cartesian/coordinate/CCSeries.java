@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Stroke;
+
+/**
+ * {@code CCSeries} represents a stream of samples in a Cartesian coordinate
+ * system, drawn as a line from each sample to the next.
+ * <p>
+ * The samples are kept in a ring buffer of primitive doubles with a fixed
+ * capacity. Appending a sample takes constant time and never allocates. When
+ * the buffer is full, every new sample replaces the oldest one.
+ * <p>
+ * One thread may append samples while the series is drawn by another. A
+ * frame drawn while samples are appended may show the series as it was at
+ * any point during the frame, and may get the oldest few samples wrong if
+ * the buffer wraps around in the meantime; the next frame is correct.
+ * <p>
+ * Of a run of samples that fall in the same column of pixels, at most four
+ * are drawn: the first, the last, and the ones with the smallest and the
+ * largest y-coordinate. This gives the same line as drawing every sample. If
+ * the x-coordinates never decrease, as for samples taken over time, only the
+ * samples in the visible area are visited at all.
+ *
+ * @author Andreas Halle
+ * @see    CCSystem#setAutoScroll(CCSeries)
+ */
+public class CCSeries {
+    protected final double[] xs;
+    protected final double[] ys;
+
+    /*
+     * Number of samples ever appended. The newest sample is at index
+     * (count - 1) % capacity. Written after the sample itself, so a reader
+     * that sees a count also sees the samples before it.
+     */
+    protected volatile long count;
+
+    /* Value of count when the series was last cleared */
+    protected volatile long first;
+
+    /*
+     * True as long as every sample since the series was last cleared has an
+     * x-coordinate that is not NaN and not smaller than the one before it.
+     * Cleared before count is written, so a reader that sees a count also
+     * sees whether the samples before it are in order.
+     */
+    protected boolean ordered;
+
+    /* Minimum and maximum of the samples at coarser resolutions, or null */
+    final Pyramid pyramid;
+
+    protected Paint paint;
+    protected Stroke stroke;
+
+
+
+    /**
+     * Create an empty series.
+     *
+     * @param capacity
+     *        Number of samples the series keeps.
+     * @param paint
+     *        {@code Paint} to draw the series with.
+     * @param stroke
+     *        {@code Stroke} to draw the series with.
+     */
+    public CCSeries(int capacity, Paint paint, Stroke stroke) {
+        this(capacity, paint, stroke, false);
+    }
+
+
+
+    /**
+     * Create an empty series, optionally keeping the smallest and largest
+     * y-coordinate of every run of 8, 16, 32 and so on samples as they are
+     * appended.
+     * <p>
+     * With these, a series whose x-coordinates never decrease is drawn in
+     * time that depends on the width of the system rather than on the number
+     * of samples in view, at the cost of about a quarter more memory and a
+     * little more work per appended sample. This is worth it for series of
+     * millions of samples that are often viewed zoomed out.
+     *
+     * @param capacity
+     *        Number of samples the series keeps.
+     * @param paint
+     *        {@code Paint} to draw the series with.
+     * @param stroke
+     *        {@code Stroke} to draw the series with.
+     * @param pyramid
+     *        Whether to keep the smallest and largest y-coordinates.
+     */
+    public CCSeries(int capacity, Paint paint, Stroke stroke,
+                    boolean pyramid) {
+        if (capacity < 1) {
+            String e = "capacity must be at least 1.";
+            throw new IllegalArgumentException(e);
+        }
+
+        xs = new double[capacity];
+        ys = new double[capacity];
+        ordered = true;
+        this.pyramid = pyramid ? new Pyramid(capacity) : null;
+        this.paint = paint;
+        this.stroke = stroke;
+    }
+
+
+
+    /**
+     * Create an empty series drawn with a given {@code Paint}.
+     *
+     * @param capacity
+     *        Number of samples the series keeps.
+     * @param paint
+     *        {@code Paint} to draw the series with.
+     */
+    public CCSeries(int capacity, Paint paint) {
+        this(capacity, paint, new BasicStroke(1f));
+    }
+
+
+
+    /**
+     * Create an empty series.
+     * <p>
+     * The series will be drawn in black.
+     *
+     * @param capacity
+     *        Number of samples the series keeps.
+     */
+    public CCSeries(int capacity) {
+        this(capacity, Color.black);
+    }
+
+
+
+    /**
+     * Append a sample, replacing the oldest one if the series is full.
+     *
+     * @param x
+     *        x-coordinate of the sample.
+     * @param y
+     *        y-coordinate of the sample.
+     */
+    public void append(double x, double y) {
+        long c = count;
+        int i = (int) (c % xs.length);
+        double last = (c > first) ? xs[(int) ((c - 1) % xs.length)]
+                                  : Double.NEGATIVE_INFINITY;
+        if (!(x >= last)) ordered = false;
+        xs[i] = x;
+        ys[i] = y;
+        if (pyramid != null) pyramid.add(c, y);
+        count = c + 1;
+    }
+
+
+
+    /**
+     * Append several samples, replacing the oldest ones if the series is
+     * full.
+     *
+     * @param x
+     *        x-coordinates of the samples.
+     * @param y
+     *        y-coordinates of the samples.
+     * @param offset
+     *        Index of the first sample to append in {@code x} and {@code y}.
+     * @param length
+     *        Number of samples to append.
+     */
+    public void append(double[] x, double[] y, int offset, int length) {
+        long c = count;
+        int i = (int) (c % xs.length);
+        double last = (c > first) ? xs[(int) ((c - 1) % xs.length)]
+                                  : Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < length; k++) {
+            if (!(x[offset+k] >= last)) ordered = false;
+            last = x[offset+k];
+            xs[i] = x[offset+k];
+            ys[i] = y[offset+k];
+            if (pyramid != null) pyramid.add(c + k, y[offset+k]);
+            if (++i == xs.length) i = 0;
+        }
+        count = c + length;
+    }
+
+
+
+    /**
+     * Return the number of samples the series keeps.
+     *
+     * @return
+     *         the capacity of the series.
+     */
+    public int capacity() {
+        return xs.length;
+    }
+
+
+
+    /**
+     * Remove every sample.
+     */
+    public void clear() {
+        ordered = true;
+        first = count;
+    }
+
+
+
+    /**
+     * Return the x-coordinate of the newest sample.
+     *
+     * @return
+     *         the x-coordinate of the newest sample, or {@code NaN} if the
+     *         series is empty.
+     */
+    public double lastX() {
+        long c = count;
+        if (c == first) return Double.NaN;
+        return xs[(int) ((c - 1) % xs.length)];
+    }
+
+
+
+    /**
+     * Return the y-coordinate of the newest sample.
+     *
+     * @return
+     *         the y-coordinate of the newest sample, or {@code NaN} if the
+     *         series is empty.
+     */
+    public double lastY() {
+        long c = count;
+        if (c == first) return Double.NaN;
+        return ys[(int) ((c - 1) % ys.length)];
+    }
+
+
+
+    /**
+     * Return the number of samples in the series.
+     *
+     * @return
+     *         the number of samples in the series.
+     */
+    public int size() {
+        return (int) Math.min(count - first, xs.length);
+    }
+}
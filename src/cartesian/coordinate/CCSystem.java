@@ -18,29 +18,41 @@
  */
 package cartesian.coordinate;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.GradientPaint;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Paint;
-import java.awt.Point;
-import java.awt.Polygon;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.Point2D;
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.util.ArrayList;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * A class representing a visible Cartesian coordinate system.
@@ -49,6 +61,8 @@ import javax.swing.JPanel;
  * precision number to another.
  * <p>
  * The system can contain objects such as lines, points and polygons.
+ * Polygons are drawn below lines, and lines below points. Objects of the
+ * same kind are drawn in the order they were added.
  * 
  * @author Andreas Halle
  * @see    CCLine
@@ -64,13 +78,38 @@ public class CCSystem extends JPanel {
      * 2. An emulated two-dimensional coordinate system where x and y can lie in
      *    any range definable by double precision numbers.
      * 
-     * Throughout this class, Point is used to represent a point in system 1
-     * while Point2D is used to represent a point in system 2.
+     * Throughout this class, int is used to represent a coordinate in system 1
+     * while double is used to represent a coordinate in system 2.
      * 
      * The translate.*(.)-methods are used to translate between the two systems.
+     * The objects in the system are drawn by a Renderer, which has its own
+     * copy of the translation for the current frame.
      */
     private static final long serialVersionUID = 1L;
     
+    /* Objects this many pixels outside the visible area are still drawn */
+    private static final int CULL_MARGIN = 8;
+    
+    private static final RenderingHints NICE_GRAPHICS = createNiceGraphics();
+    
+    /* The layers, from bottom to top */
+    private static final int POLYGON_LAYER = 0;
+    private static final int LINE_LAYER = 1;
+    private static final int GRID_LAYER = 2;
+    private static final int AXES_LAYER = 3;
+    private static final int POINT_LAYER = 4;
+    private static final int OVERLAY_LAYER = 5;
+    private static final int LAYERS = 6;
+    
+    /* See renderThread */
+    private static final long STALE_FRAME_NANOS = 100000000L;
+    
+    /* Side of the tiles drawn in parallel, in device pixels */
+    private static final int TILE_SIZE = 128;
+    
+    /* Frames per second painted by default */
+    private static final int FRAME_RATE = 60;
+    
     /* Some visual options */
     private boolean axisXVisible;
     private boolean axisYVisible;
@@ -103,10 +142,9 @@ public class CCSystem extends JPanel {
     private boolean movable;
     private boolean zoomable;
     
-    /* Object containers */
-    private List<CCLine> lines;
-    private List<CCPolygon> polygons;
-    private List<CCPoint> points;
+    /* Object containers; clear() replaces the scene with an empty one */
+    private volatile Scene scene;
+    private List<CCOverlay> overlays;
     
     /* Define the range of the visible xy-plane */
     private double minX;
@@ -140,21 +178,119 @@ public class CCSystem extends JPanel {
      * Round this exact value to a value (of the same magnitude) that can be
      * written with very few decimals (or lots of trailing zeroes.)
      * 
-     * vbu stands for "value between unit lines"
+     * The rounded value and the labels of the unit lines are kept here.
+     */
+    private Ticks ticksX;
+    private Ticks ticksY;
+    
+    /* The origin of system 1 */
+    private int originX;
+    private int originY;
+    
+    /* Draws the objects in the system */
+    private final Renderer renderer;
+    
+    /*
+     * Every group of objects is drawn into its own layer, and the layers are
+     * composited in the order of their indexes. A layer is only redrawn when
+     * something in it has changed, or when the visible area has changed. The
+     * frame* fields describe the visible area the layers currently show.
+     */
+    private Layer[] layers;
+    private double frameMinX;
+    private double frameMinY;
+    private double frameMaxX;
+    private double frameMaxY;
+    private int frameWidth;
+    private int frameHeight;
+    private double frameScaleX;
+    private double frameScaleY;
+    private Font frameFont;
+    
+    /*
+     * Number of pixels the drawn objects have moved with the mouse since the
+     * last frame, and whether the visible area has been changed in any other
+     * way since then.
+     */
+    private int panX;
+    private int panY;
+    private boolean viewportReset;
+    
+    /* 
+     * Held while objects are drawn. Objects are added without taking it; a
+     * thread drawing a frame first takes a snapshot of the scene.
+     */
+    private final Object sceneLock;
+    
+    /* 
+     * Background rendering. The polygon, line and point layers are drawn by
+     * renderThread into a SceneFrame, and paintComponent composites the most
+     * recent complete frame. Each requested frame gets a new generation.
+     * Frames that are waiting to be drawn are skipped when a newer frame has
+     * been requested. A frame that is being drawn is abandoned when its
+     * generation falls below cancelledBelow, which happens when a newer frame
+     * is requested while the shown frame is still fresh. If the shown frame
+     * is older than STALE_FRAME_NANOS, the frame being drawn is allowed to
+     * finish so that dragging continuously still shows progress.
+     */
+    private boolean asyncRendering;
+    private ExecutorService renderThread;
+    private final AtomicLong renderGeneration;
+    private final AtomicLong cancelledBelow;
+    private volatile long renderedAt;
+    private final Renderer asyncRenderer;
+    private volatile SceneFrame renderedFrame;
+    private final AtomicReference<SceneFrame> spareFrame;
+    
+    /* The frame shown by paintComponent. Only used on the EDT. */
+    private SceneFrame shownFrame;
+    
+    /*
+     * Parallel rendering. When tilePool is not null, a polygon, line or point
+     * layer that is drawn from scratch is split into tiles which are drawn at
+     * the same time by tilePool, each with a renderer of its own from
+     * tileRenderers. The thread asking for the layer holds sceneLock until
+     * every tile is done.
+     * 
+     * The objects of the layer are first clipped and culled once for the
+     * whole image, and sorted into tileBins, and into one of cloudBins for
+     * every point cloud, so that every tile only visits its own objects.
+     */
+    private ForkJoinPool tilePool;
+    private Renderer[] tileRenderers;
+    private TileBins tileBins;
+    private TileBins[] cloudBins;
+    
+    /*
+     * Repaint scheduling. Every call to repaint() and every change to the
+     * objects asks for a frame. Requests are coalesced so that frameTimer
+     * paints at most one frame per frameNanos, and none while a batch is
+     * open. frameAt, the time the last frame was asked for, is only used on
+     * the EDT.
+     */
+    private final Timer frameTimer;
+    private final AtomicBoolean framePending;
+    private final AtomicInteger batches;
+    private volatile long frameNanos;
+    private long frameAt;
+    
+    /*
+     * The scene as it was when the layers were last checked for changes, see
+     * invalidateChangedLayers().
      */
-    private BigDecimal vbuX;
-    private BigDecimal vbuY;
+    private Scene checkedScene;
+    private int checkedPolygons;
+    private long checkedLines;
+    private long checkedPoints;
     
-    /* The origin of system 1 and system 2 */
-    private Point2D.Double origin2d;
-    private Point origin;
+    /* Series whose newest sample is kept at the right edge, and its count */
+    private volatile CCSeries scrolled;
+    private long scrolledCount;
     
     /* Some listeners */
     private MouseListener mouseListener;
     private MouseWheelListener mouseWheelListener;
     
-    private final MathContext prec = new MathContext(10);
-    
     
     
     /**
@@ -204,9 +340,31 @@ public class CCSystem extends JPanel {
         ulScale = 65;
         ulSize = 4;
 
-        lines = new ArrayList<CCLine>();
-        polygons = new ArrayList<CCPolygon>();
-        points = new ArrayList<CCPoint>();
+        scene = new Scene();
+        overlays = new CopyOnWriteArrayList<CCOverlay>();
+        renderer = new Renderer();
+        sceneLock = new Object();
+        renderGeneration = new AtomicLong();
+        cancelledBelow = new AtomicLong();
+        renderedAt = System.nanoTime() - STALE_FRAME_NANOS;
+        asyncRenderer = new Renderer();
+        spareFrame = new AtomicReference<SceneFrame>();
+        framePending = new AtomicBoolean();
+        batches = new AtomicInteger();
+        frameNanos = 1000000000L / FRAME_RATE;
+        frameAt = System.nanoTime() - frameNanos;
+        frameTimer = new Timer(0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                paintFrame();
+            }
+        });
+        frameTimer.setRepeats(false);
+        ticksX = new Ticks();
+        ticksY = new Ticks();
+        
+        layers = new Layer[LAYERS];
+        for (int i = 0; i < LAYERS; i++) layers[i] = new Layer();
         
         /* Add some default listeners */
         mouseListener = new mouseListener();
@@ -227,46 +385,184 @@ public class CCSystem extends JPanel {
     
     /**
      * Add a {@code CCLine} to the coordinate system.
+     * <p>
+     * Objects may be added from any thread, by several threads at the same
+     * time. Adding never waits for the system to be drawn.
      * 
      * @param line
      *        a {@code CCLine} object.
      */
     public void add(CCLine line) {
-        lines.add(line);
+        scene.lines.add(line);
+        scheduleFrame();
     }
     
     
     
+    /**
+     * Add a {@code CCPoint} to the coordinate system.
+     * <p>
+     * Objects may be added from any thread, by several threads at the same
+     * time. Adding never waits for the system to be drawn.
+     * 
+     * @param point
+     *        a {@code CCPoint} object.
+     */
     public void add(CCPoint point) {
-        points.add(point);
+        scene.points.add(point);
+        scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Add a {@code CCPointCloud} to the coordinate system.
+     * <p>
+     * Points added to the cloud afterwards are drawn as well.
+     * 
+     * @param cloud
+     *        a {@code CCPointCloud} object.
+     */
+    public void add(CCPointCloud cloud) {
+        scene.clouds.add(cloud);
+        scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Add a {@code CCSeries} to the coordinate system.
+     * <p>
+     * Samples appended to the series afterwards are drawn as well. Call
+     * {@link #repaint()} after appending samples to show them.
+     * 
+     * @param series
+     *        a {@code CCSeries} object.
+     */
+    public void add(CCSeries series) {
+        scene.series.add(series);
+        scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Add a {@code CCFunction} to the coordinate system.
+     * 
+     * @param function
+     *        a {@code CCFunction} object.
+     */
+    public void add(CCFunction function) {
+        scene.functions.add(function);
+        scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Add a {@code CCMappedSeries} to the coordinate system.
+     * 
+     * @param series
+     *        a {@code CCMappedSeries} object.
+     */
+    public void add(CCMappedSeries series) {
+        scene.mapped.add(series);
+        scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Add a {@code CCOverlay} to the coordinate system. Overlays are painted
+     * on top of every other object, in the order they were added.
+     * 
+     * @param overlay
+     *        a {@code CCOverlay} object.
+     */
+    public void add(CCOverlay overlay) {
+        overlays.add(overlay);
+        layers[OVERLAY_LAYER].invalidate();
     }
     
     
     
+    /**
+     * Add a {@code CCPolygon} to the coordinate system.
+     * 
+     * @param polygon
+     *        a {@code CCPolygon} object.
+     */
     public void add(CCPolygon polygon) {
-        polygons.add(polygon);
+        scene.polygons.add(polygon);
+        scheduleFrame();
     }
     
     
     
     /**
-     * Remove all visible objects in the current system.
+     * Start a batch of changes. No frames are painted until every batch that
+     * has been started is ended with {@link #endBatch()}, and then a single
+     * frame shows all the changes. Use this around bulk loads of objects.
+     * <p>
+     * Batches may be nested, and may be started and ended from any thread.
+     */
+    public void beginBatch() {
+        batches.incrementAndGet();
+    }
+    
+    
+    
+    /**
+     * End a batch of changes started with {@link #beginBatch()}. When the last
+     * open batch ends, the system is repainted.
+     * 
+     * @throws IllegalStateException
+     *         if no batch is open.
+     */
+    public void endBatch() {
+        int n;
+        do {
+            n = batches.get();
+            if (n == 0) {
+                String e = "no batch has been started.";
+                throw new IllegalStateException(e);
+            }
+        } while (!batches.compareAndSet(n, n - 1));
+        
+        if (n == 1) scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Remove all visible objects in the current system. Overlays are kept.
+     * <p>
+     * This may be called from any thread. Objects added by other threads
+     * while the system is being cleared may or may not be removed.
      */
     public void clear() {
-        lines.clear();
-        points.clear();
-        polygons.clear();
-        updateUI();
+        scene = new Scene();
+        repaint();
     }
     
     
     
-    /* Move the visible area relevant to the current position. */ 
-    private void drag(double moveX, double moveY) {
+    /* 
+     * Move the visible area relevant to the current position by the given
+     * number of pixels.
+     */ 
+    private void drag(int dx, int dy) {
+        double moveX = distX / getWidth() * dx;
+        double moveY = distY / getHeight() * dy;
+        
         minX += moveX;
         maxX += moveX;
-        minY += moveY;
-        maxY += moveY;
+        minY -= moveY;
+        maxY -= moveY;
+        
+        /* The objects on the screen move the opposite way. */
+        panX -= dx;
+        panY -= dy;
     }
     
     
@@ -279,7 +575,7 @@ public class CCSystem extends JPanel {
         if (axisXVisible) {
             g2d.setPaint(axisXPaint);
             g2d.setStroke(axisXStroke);
-            g2d.drawLine(origin.x, 0, origin.x, getHeight());
+            g2d.drawLine(originX, 0, originX, getHeight());
             if (unitXVisible) {
                 g2d.setPaint(unitXPaint);
                 g2d.setStroke(unitXStroke);
@@ -289,7 +585,7 @@ public class CCSystem extends JPanel {
         if (axisYVisible) {
             g2d.setPaint(axisYPaint);
             g2d.setStroke(axisYStroke);
-            g2d.drawLine(0, origin.y, getWidth(), origin.y);
+            g2d.drawLine(0, originY, getWidth(), originY);
             if (unitYVisible) {
                 g2d.setPaint(unitYPaint);
                 g2d.setStroke(unitYStroke);
@@ -304,9 +600,6 @@ public class CCSystem extends JPanel {
      * Draw a grid for the coordinate system.
      */
     private void drawGrid(Graphics2D g2d) {
-        g2d.setColor(Color.black);
-        g2d.setStroke(new BasicStroke(0.1f));
-        
         if (gridXVisible) drawXGridLines(g2d);
         if (gridYVisible) drawYGridLines(g2d);
     }
@@ -339,7 +632,7 @@ public class CCSystem extends JPanel {
      */
     private void drawXGridLines(Graphics2D g2d, double ratio,
                                Stroke stroke, Paint paint) {
-        double vbu = this.vbuX.doubleValue() / ratio;
+        double vbu = ticksX.step() / ratio;
         
         int idx = (int) Math.ceil(minX / vbu);
         int end = (int) Math.floor(maxX / vbu);
@@ -376,7 +669,7 @@ public class CCSystem extends JPanel {
      */
     private void drawYGridLines(Graphics2D g2d, double ratio,
                                Stroke stroke, Paint paint) {
-        double vbu = this.vbuY.doubleValue() / ratio;
+        double vbu = ticksY.step() / ratio;
         
         int idx = (int) Math.ceil(minY / vbu);
         int end = (int) Math.floor(maxY / vbu);
@@ -389,179 +682,426 @@ public class CCSystem extends JPanel {
 
 
     /*
-     * Draw a Line.
+     * Draw the objects of one layer onto an image of iw x ih device pixels.
+     * Return false if the layer turned out to have nothing to show.
      */
-    private void drawLine(Graphics2D g2d, CCLine line) {
-        g2d.setPaint(line.paint);
-        g2d.setStroke(line.stroke);
-        if (line.b == 0.0) drawLineVertical(g2d, line);
-        else if (line.a == 0.0) drawLineHorizontal(g2d, line);
-        else drawLineSlope(g2d, line);
+    private boolean drawLayer(Graphics2D g2d, int layer, int iw, int ih) {
+        if (isObjectLayer(layer)) {
+            return drawTiles(g2d, layer, renderer, minX, minY, maxX, maxY,
+                             iw, ih);
+        }
+        return drawLayer(g2d, layer, minX, minY, maxX, maxY);
     }
-
-
-
-    /* Assume a == 0.0 */
-    private void drawLineHorizontal(Graphics2D g2d, CCLine line) {
-        int mul = (line.b  < 0) ? -1 : 1;
-        double yval = line.c*mul;
-        if (!validY(yval)) return; /* Don't draw lines off the screen. */
-        
-        int y = translateY(yval);
-        int x1 = translateX(minX);
-        int x2 = translateX(maxX);
-        
-        g2d.drawLine(x1, y, x2, y);
+    
+    
+    
+    /*
+     * Draw the objects of one layer that are within the given part of the
+     * visible area. Return false if the layer turned out to have nothing to
+     * show.
+     */
+    private boolean drawLayer(Graphics2D g2d, int layer, double loX,
+                              double loY, double hiX, double hiY) {
+        switch (layer) {
+        case GRID_LAYER:
+            drawGrid(g2d);
+            return gridXVisible || gridYVisible;
+        case AXES_LAYER:
+            drawAxes(g2d);
+            return axisXVisible || axisYVisible;
+        case OVERLAY_LAYER:
+            AffineTransform tx = new AffineTransform(1/xscale, 0, 0, -1/yscale,
+                                      -minX/xscale, getHeight() + minY/yscale);
+            for (CCOverlay overlay : overlays) overlay.paint(g2d, tx);
+            return !overlays.isEmpty();
+        default:
+            return drawObjects(g2d, layer, renderer, loX, loY, hiX, hiY);
+        }
     }
-
-
-
-    /* 
-     * Draw a line with a defined slope.
+    
+    
+    
+    /*
+     * Draw the polygons, lines and points onto the given Graphics2D the way
+     * painting draws them into their layers, on the calling thread whether
+     * or not rendering is asynchronous. A hook for AllocationCheck, which
+     * measures what drawing the objects allocates; nothing else calls it.
+     */
+    void drawObjectLayers(Graphics2D g2d) {
+        updatePosition();
+        int w = getWidth();
+        int h = getHeight();
+        drawLayer(g2d, POLYGON_LAYER, w, h);
+        drawLayer(g2d, LINE_LAYER, w, h);
+        drawLayer(g2d, POINT_LAYER, w, h);
+    }
+    
+    
+    
+    /*
+     * Draw the objects of the polygon, line or point layer that are within the
+     * given part of the visible area, using the given renderer. Return false
+     * if the layer turned out to have nothing to show, or if the renderer
+     * was cancelled.
      * 
-     * Assume a, b != 0.
-     */
-    private void drawLineSlope(Graphics2D g2d, CCLine line) {
-        /* Find intercepts with the display window */
-        double i_minX = line.solveForY(minX);
-        double i_maxX = line.solveForY(maxX);
-        double i_minY = line.solveForX(minY);
-        double i_maxY = line.solveForX(maxY);
-        boolean v_minX = validY(i_minX);
-        boolean v_maxX = validY(i_maxX);
-        boolean v_minY = validX(i_minY);
-        boolean v_maxY = validX(i_maxY);
-
+     * This may be called from the rendering thread.
+     */
+    private boolean drawObjects(Graphics2D g2d, int layer, Renderer r,
+                                double loX, double loY,
+                                double hiX, double hiY) {
+        synchronized (sceneLock) {
+            Scene s = scene;
+            s.update();
+            return drawObjectsInArea(g2d, layer, r, s, loX, loY, hiX, hiY);
+        }
+    }
+    
+    
+    
+    /*
+     * Does the work of drawObjects, drawing the objects in the snapshot last
+     * taken of the given scene. The caller must hold sceneLock, or be drawing
+     * a tile for a thread that holds it.
+     */
+    private boolean drawObjectsInArea(Graphics2D g2d, int layer, Renderer r,
+                                      Scene s, double loX, double loY,
+                                      double hiX, double hiY) {
         /* 
-         * Possible intercept-pairs:
-         *  1. minX and minY        2. minX and maxY        3. minX and maxX
-         *  4. minY and maxX        5. minY and maxY        6. maxX and maxY
+         * Only visit polygons and points whose bounding boxes intersect the
+         * area. Extend the area by a few pixels so that strokes and the
+         * circles around points are not cut off at the edges.
          */
-        Point2D p2d1;
-        Point2D p2d2;
-        /* Special case, from corner to corner */
-        if (v_minX && v_maxX && v_minY && v_maxY) {
-            if (line.a < 0) {
-                p2d1 = new Point2D.Double(minX, minY);
-                p2d2 = new Point2D.Double(maxX, maxY);
-            } else {
-                p2d1 = new Point2D.Double(maxX, minY);
-                p2d2 = new Point2D.Double(minX, maxY);
+        double mx = CULL_MARGIN * r.xscale();
+        double my = CULL_MARGIN * r.yscale();
+        loX -= mx;
+        loY -= my;
+        hiX += mx;
+        hiY += my;
+        
+        int n;
+        switch (layer) {
+        case POLYGON_LAYER:
+            n = s.polygonIndex.query(loX, loY, hiX, hiY, r.hits);
+            if (!r.drawPolygons(g2d, s.polygons, r.hits.ids, n,
+                                s.polygonStyles)) return false;
+            return n > 0;
+        case LINE_LAYER:
+            if (!r.drawLines(g2d, s.lineBatch, s.lineCount, loX, loY, hiX,
+                             hiY)) return false;
+            for (int i = 0; i < s.seriesCount; i++) {
+                r.drawSeries(g2d, s.series.get(i), loX, hiX);
             }
-        } else if (v_minX && v_minY) {
-            p2d1 = new Point2D.Double(minX, i_minX);
-            p2d2 = new Point2D.Double(i_minY, minY);
-        } else if (v_minX && v_maxY) {
-            p2d1 = new Point2D.Double(minX, i_minX);
-            p2d2 = new Point2D.Double(i_maxY, maxY);
-        } else if (v_minX && v_maxX) {
-            p2d1 = new Point2D.Double(minX, i_minX);
-            p2d2 = new Point2D.Double(maxX, i_maxX);
-        } else if (v_minY && v_maxX) {
-            p2d1 = new Point2D.Double(i_minY, minY);
-            p2d2 = new Point2D.Double(maxX, i_maxX);
-        } else if (v_minY && v_maxY) {
-            p2d1 = new Point2D.Double(i_minY, minY);
-            p2d2 = new Point2D.Double(i_maxY, maxY);
-        } else if (v_maxX && v_maxY) {
-            p2d1 = new Point2D.Double(maxX, i_maxX);
-            p2d2 = new Point2D.Double(i_maxY, maxY);
-        } else {
-            return; /* Don't draw lines off the screen. */
+            for (int i = 0; i < s.mappedCount; i++) {
+                r.drawMappedSeries(g2d, s.mapped.get(i), loX, hiX);
+            }
+            for (int i = 0; i < s.functionCount; i++) {
+                r.drawFunction(g2d, s.functions.get(i), loX, hiX);
+            }
+            return s.lineCount > 0 || s.seriesCount > 0 || s.mappedCount > 0
+                || s.functionCount > 0;
+        case POINT_LAYER:
+            n = s.pointIndex.query(loX, loY, hiX, hiY, r.hits);
+            if (!r.drawPoints(g2d, s.points, r.hits.ids, n,
+                              s.pointStyles)) return false;
+            for (int i = 0; i < s.cloudCount; i++) {
+                r.drawPointCloud(g2d, s.clouds.get(i), loX, loY, hiX, hiY);
+            }
+            return n > 0 || s.cloudCount > 0;
+        default:
+            return false;
         }
-
-        Point p1 = translate(p2d1);
-        Point p2 = translate(p2d2);
-
-        g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
     }
-
-
-
-    /* Assume b == 0.0 */
-    private void drawLineVertical(Graphics2D g2d, CCLine line) {
-        int mul = (line.a < 0) ? -1 : 1;
-        double xval = line.c*mul;
-        if (!validX(xval)) return; /* Don't draw lines off the screen. */
+    
+    
+    
+    /*
+     * Draw the objects of the polygon, line or point layer within the visible
+     * area of the given renderer, [loX, hiX] x [loY, hiY], onto an image of
+     * iw x ih device pixels. With parallel rendering, the objects are culled
+     * once and sorted into the tiles they overlap, and the image is split
+     * into tiles that are drawn at the same time; every tile only visits the
+     * objects in its bin and is clipped to its own pixels. Return false if
+     * the layer turned out to have nothing to show, or if the renderer was
+     * cancelled.
+     * 
+     * What a tile looks like only depends on the tile, never on which thread
+     * draws it or when, so the result is the same for any number of threads.
+     */
+    private boolean drawTiles(Graphics2D g2d, int layer, Renderer r,
+                              double loX, double loY, double hiX, double hiY,
+                              int iw, int ih) {
+        int cols = (iw + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (ih + TILE_SIZE - 1) / TILE_SIZE;
+        int n = cols * rows;
         
-        int x = translateX(xval);
-        int y1 = translateY(minY);
-        int y2 = translateY(maxY);
+        AffineTransform at = g2d.getTransform();
+        double sx = at.getScaleX();
+        double sy = at.getScaleY();
         
-        g2d.drawLine(x, y1, x, y2);
+        synchronized (sceneLock) {
+            Scene s = scene;
+            s.update();
+            if (tilePool == null || n < 2) {
+                return drawObjectsInArea(g2d, layer, r, s, loX, loY, hiX, hiY);
+            }
+            
+            if (tileRenderers == null || tileRenderers.length < n) {
+                Renderer[] grown = new Renderer[n];
+                int old = (tileRenderers == null) ? 0 : tileRenderers.length;
+                for (int i = 0; i < n; i++) {
+                    grown[i] = (i < old) ? tileRenderers[i] : new Renderer();
+                }
+                tileRenderers = grown;
+            }
+            
+            /*
+             * Sample the functions for the whole area first, so that the
+             * tiles find their samples ready instead of each sampling its
+             * own part.
+             */
+            if (layer == LINE_LAYER) {
+                double mx = CULL_MARGIN * r.xscale();
+                for (int i = 0; i < s.functionCount; i++) {
+                    r.sampleFunction(s.functions.get(i), loX - mx, hiX + mx);
+                }
+            }
+            
+            if (!binObjects(layer, r, s, at, cols, rows, loX, loY, hiX, hiY)) {
+                return false;
+            }
+            
+            final Tile[] tiles = new Tile[n];
+            for (int i = 0; i < n; i++) {
+                int x = (i % cols) * TILE_SIZE;
+                int y = (i / cols) * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, iw - x);
+                int h = Math.min(TILE_SIZE, ih - y);
+                
+                Renderer tr = tileRenderers[i];
+                tr.follow(r);
+                
+                /* The clip is given in device pixels. */
+                Graphics2D tg = (Graphics2D) g2d.create();
+                tg.setTransform(new AffineTransform());
+                tg.clipRect(x, y, w, h);
+                tg.setTransform(at);
+                
+                double tloX = tr.inverseX(x / sx);
+                double tloY = tr.inverseY((y + h) / sy);
+                double thiX = tr.inverseX((x + w) / sx);
+                double thiY = tr.inverseY(y / sy);
+                tiles[i] = new Tile(tg, layer, tr, r, s, i, tloX, tloY, thiX,
+                                    thiY);
+            }
+            
+            tilePool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+                
+                @Override
+                protected void compute() {
+                    invokeAll(tiles);
+                }
+            });
+            
+            boolean drawn = false;
+            for (Tile tile : tiles) drawn |= tile.drawn;
+            return drawn && !r.isCancelled();
+        }
     }
     
     
     
-    /* Draw a point */
-    private void drawPoint(Graphics2D g2d, CCPoint point) {
-        Point p = translate(new Point2D.Double(point.x,  point.y));
+    /*
+     * Clip or cull the objects of the polygon, line or point layer once for
+     * the whole visible area of the given renderer, and sort the ones left
+     * into tileBins, and the points of the clouds into cloudBins, by the
+     * tiles of cols x rows they overlap on an image drawn with the given
+     * transform. The lines stay clipped in the renderer. Return false if
+     * the renderer was cancelled.
+     */
+    private boolean binObjects(int layer, Renderer r, Scene s,
+                               AffineTransform at, int cols, int rows,
+                               double loX, double loY, double hiX,
+                               double hiY) {
+        double sx = at.getScaleX();
+        double sy = at.getScaleY();
+        double tx = at.getTranslateX();
+        double ty = at.getTranslateY();
+        double margin = CULL_MARGIN * Math.max(sx, sy);
+        
+        double mx = CULL_MARGIN * r.xscale();
+        double my = CULL_MARGIN * r.yscale();
+        loX -= mx;
+        loY -= my;
+        hiX += mx;
+        hiY += my;
+        
+        if (tileBins == null) tileBins = new TileBins();
+        TileBins bins = tileBins;
+        bins.begin(cols, rows, TILE_SIZE);
         
-        g2d.setPaint(point.paint);
-        g2d.setStroke(point.stroke);
-        Ellipse2D r2d = new Ellipse2D.Double(p.x-2, p.y-2, 4, 4);
-        g2d.draw(r2d);
-        g2d.fill(r2d);
+        int n;
+        switch (layer) {
+        case POLYGON_LAYER:
+            n = s.polygonIndex.query(loX, loY, hiX, hiY, r.hits);
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) bins.place();
+                for (int j = 0; j < n; j++) {
+                    int id = r.hits.ids[j];
+                    CCPolygon p = s.polygons.get(id);
+                    bins.add(id, r.pixelX(p.minX) * sx + tx - margin,
+                                 r.pixelY(p.maxY) * sy + ty - margin,
+                                 r.pixelX(p.maxX) * sx + tx + margin,
+                                 r.pixelY(p.minY) * sy + ty + margin);
+                }
+            }
+            return true;
+        case LINE_LAYER:
+            n = r.clipLines(s.lineBatch, s.lineCount, loX, loY, hiX, hiY);
+            if (n < 0) return false;
+            int[] ends = r.clippedEnds();
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) bins.place();
+                for (int k = 0; k < n; k++) {
+                    bins.addSegment(k, ends[4*k] * sx + tx,
+                                       ends[4*k+1] * sy + ty,
+                                       ends[4*k+2] * sx + tx,
+                                       ends[4*k+3] * sy + ty, margin);
+                }
+            }
+            return true;
+        case POINT_LAYER:
+            n = s.pointIndex.query(loX, loY, hiX, hiY, r.hits);
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) bins.place();
+                for (int j = 0; j < n; j++) {
+                    int id = r.hits.ids[j];
+                    CCPoint p = s.points.get(id);
+                    double x = r.pixelX(p.x) * sx + tx;
+                    double y = r.pixelY(p.y) * sy + ty;
+                    bins.add(id, x - margin, y - margin, x + margin,
+                             y + margin);
+                }
+            }
+            
+            if (cloudBins == null || cloudBins.length < s.cloudCount) {
+                TileBins[] grown = new TileBins[s.cloudCount];
+                int old = (cloudBins == null) ? 0 : cloudBins.length;
+                for (int i = 0; i < s.cloudCount; i++) {
+                    grown[i] = (i < old) ? cloudBins[i] : new TileBins();
+                }
+                cloudBins = grown;
+            }
+            for (int i = 0; i < s.cloudCount; i++) {
+                if (r.isCancelled()) return false;
+                binCloud(s.clouds.get(i), cloudBins[i], r, sx, sy, tx, ty,
+                         margin, cols, rows, loX, loY, hiX, hiY);
+            }
+            return true;
+        default:
+            return true;
+        }
     }
     
     
     
-    /* Draw a polygon */
-    private void drawPolygon(Graphics2D g2d, CCPolygon poly) {
-        int num = poly.xpoints.length;
-        int[] xpoints = new int[num];
-        int[] ypoints = new int[num];
+    /*
+     * Sort the points of a point cloud within [loX, hiX] x [loY, hiY] into
+     * bins by the tiles they overlap. As when the cloud is drawn, the size
+     * is read before the arrays, and limited to them.
+     */
+    private static void binCloud(CCPointCloud cloud, TileBins bins,
+                                 Renderer r, double sx, double sy,
+                                 double tx, double ty, double margin,
+                                 int cols, int rows, double loX, double loY,
+                                 double hiX, double hiY) {
+        bins.begin(cols, rows, TILE_SIZE);
+        int size = cloud.size;
+        double[] xs = cloud.xs;
+        double[] ys = cloud.ys;
+        size = Math.min(size, Math.min(xs.length, ys.length));
         
-        for (int i = 0; i < num; i++) {
-            xpoints[i] = translateX(poly.xpoints[i]);
-            ypoints[i] = translateY(poly.ypoints[i]);
-        }
-        Polygon p = new Polygon(xpoints, ypoints, num);
-        
-        /* If the polygon has GradientPaint, translate the coordinates of GP */
-        if (poly.fill instanceof GradientPaint) {
-            g2d.setPaint(translateGradientPaint((GradientPaint) poly.fill));
-            g2d.fill(p);
-        } else if (poly.fill != null) {
-            g2d.setPaint(poly.fill);
-            g2d.fill(p);
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) bins.place();
+            for (int i = 0; i < size; i++) {
+                double x = xs[i];
+                double y = ys[i];
+                if (x < loX || x > hiX || y < loY || y > hiY) continue;
+                
+                x = r.pixelX(x) * sx + tx;
+                y = r.pixelY(y) * sy + ty;
+                bins.add(i, x - margin, y - margin, x + margin, y + margin);
+            }
         }
-        
-        if (poly.stroke != null && poly.paint != null) {
-            g2d.setStroke(poly.stroke);
-            g2d.setPaint(poly.paint);
-            g2d.draw(p);
+    }
+    
+    
+    
+    /*
+     * Draw the objects of the polygon, line or point layer in one tile of
+     * tileBins and cloudBins, using the given renderer, whose Graphics2D is
+     * clipped to the tile. The lines are taken over from the renderer that
+     * clipped them. [loX, hiX] x [loY, hiY] is the tile in system 2, for
+     * the series and functions, which are not binned. Return false if the
+     * tile turned out to have nothing to show, or if the renderer was
+     * cancelled.
+     */
+    private boolean drawTile(Graphics2D g2d, int layer, Renderer r,
+                             Renderer clipper, Scene s, int tile,
+                             double loX, double loY, double hiX, double hiY) {
+        int n;
+        switch (layer) {
+        case POLYGON_LAYER:
+            n = r.takeIds(tileBins, tile);
+            if (!r.drawPolygons(g2d, s.polygons, r.hits.ids, n,
+                                s.polygonStyles)) return false;
+            return n > 0;
+        case LINE_LAYER:
+            n = r.takeLines(clipper, tileBins, tile);
+            if (!r.drawClippedLines(g2d, s.lineBatch, n)) return false;
+            
+            double mx = CULL_MARGIN * r.xscale();
+            for (int i = 0; i < s.seriesCount; i++) {
+                r.drawSeries(g2d, s.series.get(i), loX - mx, hiX + mx);
+            }
+            for (int i = 0; i < s.mappedCount; i++) {
+                r.drawMappedSeries(g2d, s.mapped.get(i), loX - mx, hiX + mx);
+            }
+            for (int i = 0; i < s.functionCount; i++) {
+                r.drawFunction(g2d, s.functions.get(i), loX - mx, hiX + mx);
+            }
+            return s.lineCount > 0 || s.seriesCount > 0 || s.mappedCount > 0
+                || s.functionCount > 0;
+        case POINT_LAYER:
+            n = r.takeIds(tileBins, tile);
+            if (!r.drawPoints(g2d, s.points, r.hits.ids, n,
+                              s.pointStyles)) return false;
+            for (int i = 0; i < s.cloudCount; i++) {
+                r.drawPointCloud(g2d, s.clouds.get(i), cloudBins[i], tile);
+            }
+            return n > 0 || s.cloudCount > 0;
+        default:
+            return false;
         }
     }
-
-
-
-    /* Draw a single unit line on the x-axis at a given value. */
-    private void drawXUnitLine(Graphics2D g2d, BigDecimal val) {
+    
+    
+    
+    /* Draw a single unit line on the x-axis. */
+    private void drawXUnitLine(Graphics2D g2d, FontMetrics fm, int i) {
         /* Don't draw anything at the origin. */
-        if (val.doubleValue() == 0.0) return;
+        if (i == 0) return;
         
-        /* val is "small" if -10^7 < val < 10^7. */
-        BigDecimal big = BigDecimal.valueOf(10000000);
-        boolean small = val.compareTo(big) < 0
-                && val.compareTo(big.negate()) > 0;
+        String strval = ticksX.label(i);
         
-        /* 
-         * When val is not "small", BigDecimal's toString does not use
-         * scientific notation, so Double's toString is used instead.
-         */
-        String strval;
-        if (small) strval = val.toString();
-        else strval = Double.toString(val.doubleValue());
-        
-        Point2D.Double p2d = new Point2D.Double(val.doubleValue(), origin2d.y);
-        Point p = translate(p2d);
+        int x = translateX(ticksX.value(i));
+        int y = originY;
         
-        int strValPixels = 7 * strval.length();
+        int strValPixels = ticksX.width(i, fm);
         int offset = (minY >= -translateY(40)) ? -10 : 20;
 
-        g2d.drawLine(p.x, p.y-ulSize, p.x, p.y+ulSize);
-        g2d.drawString(strval, p.x - strValPixels/2, p.y + offset);
+        g2d.drawLine(x, y-ulSize, x, y+ulSize);
+        g2d.drawString(strval, x - strValPixels/2, y + offset);
     }
 
 
@@ -569,95 +1109,51 @@ public class CCSystem extends JPanel {
     /* Draw all the unit lines on the x-axis. */ 
     private void drawXUnitLines(Graphics2D g2d) {
         /* 
-         * The value at each unit line will now be defined as i * vbuX. We need
-         * to find the value of i such that i * vbuX is the value at the first
-         * visible unit line.
+         * The value at each unit line is defined as i * step. We need to find
+         * the value of i such that i * step is the value at the first visible
+         * unit line.
          */
-        int idx = (int) Math.ceil(minX / vbuX.doubleValue());
+        int idx = (int) Math.ceil(minX / ticksX.step());
         
         /* Also find the value of the last visible unit line. */
-        int end = (int) Math.floor(maxX / vbuX.doubleValue());
+        int end = (int) Math.floor(maxX / ticksX.step());
         
-        for (int i = idx; i <= end; i++) drawXUnitLine(g2d,
-                BigDecimal.valueOf(i).multiply(vbuX, prec));
+        FontMetrics fm = g2d.getFontMetrics();
+        for (int i = idx; i <= end; i++) drawXUnitLine(g2d, fm, i);
     }
 
 
 
-    /* Draw a single unit line on the y-axis at a given value. */
-    private void drawYUnitLine(Graphics2D g2d, BigDecimal val) {
-        if (val.doubleValue() == 0.0) return;
-
-        BigDecimal big = BigDecimal.valueOf(10000000);
-        boolean small = val.compareTo(big) < 0
-                && val.compareTo(big.negate()) > 0;
+    /* Draw a single unit line on the y-axis. */
+    private void drawYUnitLine(Graphics2D g2d, FontMetrics fm, int i) {
+        if (i == 0) return;
 
-        String strval;
-        if (small) strval = val.toString();
-        else strval = Double.toString(val.doubleValue());
+        String strval = ticksY.label(i);
         
-        Point2D.Double p2d = new Point2D.Double(origin2d.x, val.doubleValue());
-        Point p = translate(p2d);
+        int x = originX;
+        int y = translateY(ticksY.value(i));
         
-        int strValPixels = 7 * strval.length() + 7;
+        int strValPixels = ticksY.width(i, fm) + 7;
         int offset = (minX >= -translateX(strValPixels*2)) ? 5 : -strValPixels;
         
-        g2d.drawLine(p.x-ulSize, p.y, p.x+ulSize, p.y);
-        g2d.drawString(strval, p.x+offset, p.y+5);
+        g2d.drawLine(x-ulSize, y, x+ulSize, y);
+        g2d.drawString(strval, x+offset, y+5);
     }
 
 
 
-    /* Draw all the unit lines on the x-axis. */ 
+    /* Draw all the unit lines on the y-axis. */ 
     private void drawYUnitLines(Graphics2D g2d) {
-        int idx = (int) Math.ceil(minY / vbuY.doubleValue());
-        int end = (int) Math.floor(maxY / vbuY.doubleValue());
-        
+        int idx = (int) Math.ceil(minY / ticksY.step());
+        int end = (int) Math.floor(maxY / ticksY.step());
         
-        for (int i = idx; i <= end; i++) drawYUnitLine(g2d,
-                BigDecimal.valueOf(i).multiply(vbuY, prec));
+        FontMetrics fm = g2d.getFontMetrics();
+        for (int i = idx; i <= end; i++) drawYUnitLine(g2d, fm, i);
     }
     
     
     
-    private BigDecimal findScale(double num) {
-        int x = (int) Math.floor(Math.log10(num));
-        
-        BigDecimal scale;
-        try {
-            scale = BigDecimal.TEN.pow(x, prec);
-        } catch (ArithmeticException e) {
-            scale = BigDecimal.valueOf(Double.MAX_VALUE);
-        }
-        
-        /* Don't need more than double precision here */
-        double quot = num / scale.doubleValue();
-        if (quot > 5.0) return scale.multiply(BigDecimal.TEN, prec);
-        if (quot > 2.0) return scale.multiply(BigDecimal.valueOf(5), prec);
-        if (quot > 1.0) return scale.multiply(BigDecimal.valueOf(2), prec);
-        else return scale;
-    }
-
-
-
-    /* 
-     * Round this exact value to a value (of the same magnitude) that can be
-     * written with very few decimals.
-     */
-//    private double findScale(double num) {
-//        int x = (int) Math.floor(Math.log10(num));
-//        double scale = Math.pow(10, x);
-//        
-//        double quot = num / scale;
-//        if (quot > 5.0) return 10*scale;
-//        if (quot > 2.0) return 5*scale;
-//        if (quot > 1.0) return 2*scale;
-//        else return scale;
-//    }
-    
-    
-    
-    private RenderingHints getNiceGraphics() {
+    private static RenderingHints createNiceGraphics() {
         RenderingHints rh = new RenderingHints(null);
         rh.put(RenderingHints.KEY_ALPHA_INTERPOLATION,
                 RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
@@ -682,6 +1178,50 @@ public class CCSystem extends JPanel {
     
     
     
+    /*
+     * Invalidate the polygon, line and point layers if objects have been
+     * added to them since the last time this was called, or if the system
+     * has been cleared. Points may also have been added to the point clouds;
+     * they are only ever added, so the volatile size of a cloud tells.
+     */
+    private void invalidateChangedLayers() {
+        Scene s = scene;
+        int polygons = s.polygons.version();
+        long lines = s.lines.version() + s.mapped.version()
+                   + s.functions.version();
+        for (int i = 0, n = s.series.snapshot(); i < n; i++) {
+            CCSeries series = s.series.get(i);
+            lines += series.count + series.first;
+        }
+        long points = s.points.version();
+        for (int i = 0, n = s.clouds.snapshot(); i < n; i++) {
+            points += s.clouds.get(i).size;
+        }
+        
+        if (s != checkedScene || polygons != checkedPolygons) {
+            layers[POLYGON_LAYER].invalidate();
+        }
+        if (s != checkedScene || lines != checkedLines) {
+            layers[LINE_LAYER].invalidate();
+        }
+        if (s != checkedScene || points != checkedPoints) {
+            layers[POINT_LAYER].invalidate();
+        }
+        checkedScene = s;
+        checkedPolygons = polygons;
+        checkedLines = lines;
+        checkedPoints = points;
+    }
+    
+    
+    
+    /* Make sure every layer is redrawn the next time the system is painted. */
+    private void invalidateLayers() {
+        for (Layer layer : layers) layer.invalidate();
+    }
+    
+    
+    
     /**
      * Moves the entire visible area of the current system. The visible area
      * will be x and y in [loX, hiX] and [loY, hiY], respectively.
@@ -700,6 +1240,7 @@ public class CCSystem extends JPanel {
         this.maxX = hiX;
         this.minY = loY;
         this.maxY = hiY;
+        viewportReset = true;
     }
     
     
@@ -707,17 +1248,358 @@ public class CCSystem extends JPanel {
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
+        scroll();
         updatePosition();
         
-        if (niceGraphics) g2d.addRenderingHints(getNiceGraphics());
+        int w = getWidth();
+        int h = getHeight();
+        AffineTransform tx = g2d.getTransform();
+        double sx = Math.abs(tx.getScaleX());
+        double sy = Math.abs(tx.getScaleY());
+        
+        /* The layers have the resolution of the device to stay sharp. */
+        int iw = (int) Math.ceil(w * sx);
+        int ih = (int) Math.ceil(h * sy);
+        if (iw <= 0 || ih <= 0) return;
+        
+        /* 
+         * When the system has only been dragged since the last frame, the
+         * layers with objects are moved along with the mouse and only the
+         * uncovered strips along the edges are drawn. This requires the move
+         * to be a whole number of device pixels.
+         */
+        int bx = 0;
+        int by = 0;
+        boolean blit = false;
+        if (frameMinX != minX || frameMinY != minY || frameMaxX != maxX
+                || frameMaxY != maxY || frameWidth != w || frameHeight != h
+                || frameScaleX != sx || frameScaleY != sy
+                || frameFont != getFont()) {
+            blit = !viewportReset && frameWidth == w && frameHeight == h
+                && frameScaleX == sx && frameScaleY == sy
+                && frameFont == getFont()
+                && panX*sx == Math.rint(panX*sx) && Math.abs(panX*sx) < iw
+                && panY*sy == Math.rint(panY*sy) && Math.abs(panY*sy) < ih;
+            if (blit) {
+                bx = (int) Math.rint(panX*sx);
+                by = (int) Math.rint(panY*sy);
+            }
+            
+            for (int i = 0; i < LAYERS; i++) {
+                if (!blit || !isShiftable(i)) layers[i].invalidate();
+            }
+            frameMinX = minX;
+            frameMinY = minY;
+            frameMaxX = maxX;
+            frameMaxY = maxY;
+            frameWidth = w;
+            frameHeight = h;
+            frameScaleX = sx;
+            frameScaleY = sy;
+            frameFont = getFont();
+        }
+        panX = 0;
+        panY = 0;
+        viewportReset = false;
+        
+        /* Changes made in an open batch are shown when it ends. */
+        if (batches.get() == 0) invalidateChangedLayers();
+        
+        if (asyncRendering) {
+            requestFrame(iw, ih, sx, sy);
+            
+            SceneFrame frame = renderedFrame;
+            if (frame != shownFrame) {
+                if (shownFrame != null) spareFrame.set(shownFrame);
+                shownFrame = frame;
+            }
+        }
+        
+        for (int i = 0; i < LAYERS; i++) {
+            Layer layer = layers[i];
+            if (asyncRendering && isObjectLayer(i)) {
+                if (i == POLYGON_LAYER) drawShownFrame(g2d, false);
+                if (i == POINT_LAYER) drawShownFrame(g2d, true);
+                continue;
+            }
+            if (blit && isShiftable(i)) shiftLayer(i, bx, by, iw, ih, sx, sy);
+            if (layer.isDirty()) {
+                Graphics2D lg = layer.begin(getGraphicsConfiguration(), iw, ih);
+                lg.scale(sx, sy);
+                lg.setFont(getFont());
+                if (niceGraphics) lg.addRenderingHints(NICE_GRAPHICS);
+                boolean drawn = drawLayer(lg, i, iw, ih);
+                lg.dispose();
+                if (!drawn) layer.empty();
+            }
+            layer.draw(g2d, w, h);
+        }
+    }
+    
+    
+    
+    /*
+     * Draw the part of the shown frame that goes below the grid and the axes,
+     * or the part that goes above them. The frame may have been drawn for an
+     * earlier visible area; it is then stretched to where that area is now.
+     */
+    private void drawShownFrame(Graphics2D g2d, boolean upper) {
+        SceneFrame f = shownFrame;
+        if (f == null) return;
+        
+        double x1 = (f.minX - minX) / xscale;
+        double x2 = (f.maxX - minX) / xscale;
+        double y1 = getHeight() - (f.maxY - minY) / yscale;
+        double y2 = getHeight() - (f.minY - minY) / yscale;
+        
+        AffineTransform at = new AffineTransform();
+        at.translate(x1, y1);
+        at.scale((x2 - x1) / f.iw, (y2 - y1) / f.ih);
+        g2d.drawImage(upper ? f.upper : f.lower, at, null);
+    }
+    
+    
+    
+    /* Return true for the layers that hold the objects of the system. */
+    private static boolean isObjectLayer(int i) {
+        return i == POLYGON_LAYER || i == LINE_LAYER || i == POINT_LAYER;
+    }
+    
+    
+    
+    /*
+     * Return true if a layer can be moved with the mouse instead of being
+     * redrawn. The grid and the axes are cheap to draw, and their labels do
+     * not fit in strips; overlays are unknown to the system.
+     */
+    private boolean isShiftable(int i) {
+        if (i != POLYGON_LAYER && i != LINE_LAYER && i != POINT_LAYER) {
+            return false;
+        }
+        return !layers[i].isDirty() && !layers[i].isEmpty();
+    }
+    
+    
+    
+    /*
+     * Move the contents of a layer by (bx, by) device pixels and draw the
+     * strips that are uncovered. Only objects inside the strips are visited.
+     */
+    private void shiftLayer(int i, int bx, int by, int iw, int ih,
+                            double sx, double sy) {
+        Layer layer = layers[i];
+        layer.shift(bx, by);
+        
+        /* The vertical strip spans the full height ... */
+        if (bx != 0) {
+            int x = (bx > 0) ? 0 : iw + bx;
+            drawStrip(i, x, 0, Math.abs(bx), ih, sx, sy);
+        }
+        
+        /* ... and the horizontal strip excludes the vertical one. */
+        if (by != 0) {
+            int x = (bx > 0) ? bx : 0;
+            int y = (by > 0) ? 0 : ih + by;
+            drawStrip(i, x, y, iw - Math.abs(bx), Math.abs(by), sx, sy);
+        }
+    }
+    
+    
+    
+    /* Redraw a rectangle of a layer, given in device pixels. */
+    private void drawStrip(int i, int x, int y, int width, int height,
+                           double sx, double sy) {
+        Graphics2D lg = layers[i].begin(x, y, width, height);
+        lg.scale(sx, sy);
+        lg.setFont(getFont());
+        if (niceGraphics) lg.addRenderingHints(NICE_GRAPHICS);
+        
+        /* The strip in system 2 */
+        double loX = minX + x / sx * xscale;
+        double hiX = minX + (x + width) / sx * xscale;
+        double loY = minY + (getHeight() - (y + height) / sy) * yscale;
+        double hiY = minY + (getHeight() - y / sy) * yscale;
+        
+        drawLayer(lg, i, loX, loY, hiX, hiY);
+        lg.dispose();
+    }
+    
+    
+    
+    /*
+     * Draw a requested frame. Runs on the rendering thread.
+     */
+    private void renderFrame(SceneFrame f) {
+        /* A newer frame is waiting. */
+        if (renderGeneration.get() != f.generation) return;
+        
+        Renderer r = asyncRenderer;
+        r.setCancellation(cancelledBelow, f.generation);
+        if (r.isCancelled()) return;
+        r.setViewport(f.minX, f.minY, f.maxX, f.maxY, f.width, f.height);
+        
+        /* Reuse the images of a frame that is no longer shown. */
+        SceneFrame spare = spareFrame.getAndSet(null);
+        f.allocate(spare);
+        
+        Graphics2D g2d = f.lower.createGraphics();
+        g2d.scale(f.sx, f.sy);
+        if (f.niceGraphics) g2d.addRenderingHints(NICE_GRAPHICS);
+        drawTiles(g2d, POLYGON_LAYER, r, f.minX, f.minY, f.maxX, f.maxY,
+                  f.iw, f.ih);
+        drawTiles(g2d, LINE_LAYER, r, f.minX, f.minY, f.maxX, f.maxY,
+                  f.iw, f.ih);
+        g2d.dispose();
         
-        for (CCPolygon p : polygons) drawPolygon(g2d, p);
-        for (CCLine line : lines) drawLine(g2d, line);
+        g2d = f.upper.createGraphics();
+        g2d.scale(f.sx, f.sy);
+        if (f.niceGraphics) g2d.addRenderingHints(NICE_GRAPHICS);
+        drawTiles(g2d, POINT_LAYER, r, f.minX, f.minY, f.maxX, f.maxY,
+                  f.iw, f.ih);
+        g2d.dispose();
         
-        drawGrid(g2d);
-        drawAxes(g2d);
+        if (r.isCancelled()) {
+            spareFrame.compareAndSet(null, f);
+            return;
+        }
+        renderedAt = System.nanoTime();
+        renderedFrame = f;
+        repaint();
+    }
+    
+    
+    
+    /*
+     * Ask the rendering thread for a new frame if any of the polygon, line or
+     * point layers has changed. A frame that is still being drawn is
+     * cancelled.
+     */
+    private void requestFrame(int iw, int ih, double sx, double sy) {
+        boolean dirty = false;
+        for (int i = 0; i < LAYERS; i++) {
+            if (isObjectLayer(i) && layers[i].isDirty()) {
+                layers[i].release();
+                dirty = true;
+            }
+        }
+        if (!dirty) return;
+        
+        long generation = renderGeneration.incrementAndGet();
+        if (System.nanoTime() - renderedAt < STALE_FRAME_NANOS) {
+            cancelledBelow.set(generation);
+        }
         
-        for (CCPoint p : points) drawPoint(g2d, p);
+        final SceneFrame f = new SceneFrame(generation, minX, minY, maxX, maxY,
+                getWidth(), getHeight(), iw, ih, sx, sy, niceGraphics);
+        renderThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                renderFrame(f);
+            }
+        });
+    }
+    
+    
+    
+    /*
+     * Paint the frame asked for by scheduleFrame(). Runs on the EDT.
+     */
+    private void paintFrame() {
+        framePending.set(false);
+        if (batches.get() > 0) return;
+        frameAt = System.nanoTime();
+        super.repaint(0, 0, 0, getWidth(), getHeight());
+    }
+    
+    
+    
+    /**
+     * Ask for the system to be repainted.
+     * <p>
+     * Requests are not served right away. All requests made from any thread
+     * within one frame are merged into a single repaint of the whole system,
+     * and no more frames are painted than the frame rate allows (see
+     * {@link #setFrameRate(int)}). Nothing is painted while a batch is open
+     * (see {@link #beginBatch()}).
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        /* Swing may repaint before the system is constructed. */
+        if (frameTimer == null) super.repaint(tm, x, y, width, height);
+        else scheduleFrame();
+    }
+    
+    
+    
+    /**
+     * Redraw the overlays.
+     * <p>
+     * Call this after changing what an overlay shows. Overlays are also
+     * redrawn whenever the visible area changes.
+     */
+    public void repaintOverlays() {
+        layers[OVERLAY_LAYER].invalidate();
+        repaint();
+    }
+    
+    
+    
+    /**
+     * Set whether polygons, lines and points should be drawn on a background
+     * thread.
+     * <p>
+     * When this is on, painting the system never waits for the objects to be
+     * drawn. The most recent complete drawing is shown, stretched to the
+     * current visible area, until a drawing for the current visible area is
+     * ready. Drawings for visible areas that have been left before they were
+     * completed are abandoned. The grid, the axes and the overlays are still
+     * drawn as part of painting the system.
+     * 
+     * @param async
+     *        If true, draw the objects on a background thread.
+     */
+    public void setAsyncRendering(boolean async) {
+        if (async == asyncRendering) return;
+        asyncRendering = async;
+        
+        cancelledBelow.set(renderGeneration.incrementAndGet());
+        if (async) {
+            renderThread = Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "CCSystem renderer");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        } else {
+            renderThread.shutdown();
+            renderThread = null;
+            renderedFrame = null;
+            shownFrame = null;
+            spareFrame.set(null);
+        }
+        invalidateLayers();
+        repaint();
+    }
+    
+    
+    
+    /**
+     * Keep the newest sample of a series at the right edge of the visible
+     * area. Whenever samples have been appended to the series, the visible
+     * area is moved (see {@link #move(double, double, double, double)}) so
+     * that it ends at the x-coordinate of the newest sample. The width and
+     * the vertical range of the visible area are kept.
+     * 
+     * @param series
+     *        Series to follow, or null to stop following.
+     */
+    public void setAutoScroll(CCSeries series) {
+        scrolled = series;
+        scrolledCount = -1;
+        repaint();
     }
     
     
@@ -731,6 +1613,7 @@ public class CCSystem extends JPanel {
     public void setAxesPaint(Paint paint) {
         axisXPaint = paint;
         axisYPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -744,6 +1627,7 @@ public class CCSystem extends JPanel {
     public void setAxesStroke(Stroke stroke) {
         axisXStroke = stroke;
         axisYStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
 
 
@@ -757,6 +1641,7 @@ public class CCSystem extends JPanel {
     public void setAxesVisible(boolean visible) {
         axisXVisible = visible;
         axisYVisible = visible;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -769,6 +1654,7 @@ public class CCSystem extends JPanel {
      */
     public void setAxisXPaint(Paint paint) {
         axisXPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -781,6 +1667,7 @@ public class CCSystem extends JPanel {
      */
     public void setAxisXStroke(Stroke stroke) {
         axisXStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
 
 
@@ -793,6 +1680,7 @@ public class CCSystem extends JPanel {
      */
     public void setAxisXVisible(boolean visible) {
         axisXVisible = visible;
+        layers[AXES_LAYER].invalidate();
     }
 
 
@@ -805,6 +1693,7 @@ public class CCSystem extends JPanel {
      */
     public void setAxisYPaint(Paint paint) {
         axisYPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -817,6 +1706,7 @@ public class CCSystem extends JPanel {
      */
     public void setAxisYStroke(Stroke stroke) {
         axisYStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -829,6 +1719,26 @@ public class CCSystem extends JPanel {
      */
     public void setAxisYVisible(boolean visible) {
         axisYVisible = visible;
+        layers[AXES_LAYER].invalidate();
+    }
+    
+    
+    
+    /**
+     * Set the highest number of frames per second to paint. Changes to the
+     * objects and to the visible area are shown in the next frame.
+     * <p>
+     * The default is 60 frames per second.
+     * 
+     * @param fps
+     *        Frames per second.
+     */
+    public void setFrameRate(int fps) {
+        if (fps < 1) {
+            String e = "frame rate must be at least 1 frame per second.";
+            throw new IllegalArgumentException(e);
+        }
+        frameNanos = 1000000000L / fps;
     }
     
     
@@ -842,6 +1752,7 @@ public class CCSystem extends JPanel {
     public void setGridPaint(Paint paint) {
         gridXPaint = paint;
         gridYPaint = paint;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -854,6 +1765,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridRatio(double ratio) {
         gridRatio = ratio;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -867,6 +1779,7 @@ public class CCSystem extends JPanel {
     public void setGridStroke(Stroke stroke) {
         gridXStroke = stroke;
         gridYStroke = stroke;
+        layers[GRID_LAYER].invalidate();
     }
 
 
@@ -880,6 +1793,7 @@ public class CCSystem extends JPanel {
     public void setGridVisible(boolean visible) {
         gridXVisible = visible;
         gridYVisible = visible;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -892,6 +1806,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridXPaint(Paint paint) {
         gridXPaint = paint;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -904,6 +1819,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridXStroke(Stroke stroke) {
         gridXStroke = stroke;
+        layers[GRID_LAYER].invalidate();
     }
 
 
@@ -917,6 +1833,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridXVisible(boolean visible) {
         gridXVisible = visible;
+        layers[GRID_LAYER].invalidate();
     }
 
 
@@ -929,6 +1846,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridYPaint(Paint paint) {
         gridYPaint = paint;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -941,6 +1859,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridYStroke(Stroke stroke) {
         gridYStroke = stroke;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -954,6 +1873,7 @@ public class CCSystem extends JPanel {
      */
     public void setGridYVisible(boolean visible) {
         gridYVisible = visible;
+        layers[GRID_LAYER].invalidate();
     }
     
     
@@ -967,6 +1887,7 @@ public class CCSystem extends JPanel {
     public void setUnitsPaint(Paint paint) {
         unitXPaint = paint;
         unitYPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -980,6 +1901,7 @@ public class CCSystem extends JPanel {
     public void setUnitsStroke(Stroke stroke) {
         unitXStroke = stroke;
         unitYStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -994,6 +1916,7 @@ public class CCSystem extends JPanel {
     public void setUnitsVisible(boolean visible) {
         unitXVisible = visible;
         unitYVisible = visible;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1007,6 +1930,7 @@ public class CCSystem extends JPanel {
     public void setUnitXPaint(Paint paint) {
         unitXPaint = paint;
         unitYPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1020,6 +1944,7 @@ public class CCSystem extends JPanel {
     public void setUnitXStroke(Stroke stroke) {
         unitXStroke = stroke;
         unitYStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1033,6 +1958,7 @@ public class CCSystem extends JPanel {
      */
     public void setUnitXVisible(boolean visible) {
         unitXVisible = visible;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1046,6 +1972,7 @@ public class CCSystem extends JPanel {
     public void setUnitYPaint(Paint paint) {
         unitXPaint = paint;
         unitYPaint = paint;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1059,6 +1986,7 @@ public class CCSystem extends JPanel {
     public void setUnitYStroke(Stroke stroke) {
         unitXStroke = stroke;
         unitYStroke = stroke;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1072,6 +2000,7 @@ public class CCSystem extends JPanel {
      */
     public void setUnitYVisible(boolean visible) {
         unitYVisible = visible;
+        layers[AXES_LAYER].invalidate();
     }
     
     
@@ -1123,6 +2052,40 @@ public class CCSystem extends JPanel {
      */
     public void setNiceGraphics(boolean niceGraphics) {
         this.niceGraphics = niceGraphics;
+        invalidateLayers();
+    }
+    
+    
+    
+    /**
+     * Set the number of threads drawing polygons, lines and points.
+     * <p>
+     * With more than one thread, the visible area is split into tiles that
+     * are drawn at the same time, which makes large scenes much faster to
+     * draw on machines with several processors. The picture is the same for
+     * any number of threads above one. Compared to drawing on a single
+     * thread, a few pixels along edges that cross the border between two
+     * tiles may differ, since Java2D places the pixels of a clipped edge
+     * slightly differently.
+     * <p>
+     * The default is a single thread.
+     * 
+     * @param threads
+     *        Number of threads drawing the objects, usually the number of
+     *        available processors.
+     */
+    public void setRenderingThreads(int threads) {
+        if (threads < 1) {
+            String e = "number of rendering threads must be at least 1.";
+            throw new IllegalArgumentException(e);
+        }
+        
+        synchronized (sceneLock) {
+            if (tilePool != null) tilePool.shutdown();
+            tilePool = (threads == 1) ? null : new ForkJoinPool(threads);
+        }
+        invalidateLayers();
+        repaint();
     }
     
     
@@ -1146,40 +2109,46 @@ public class CCSystem extends JPanel {
 
 
 
-    /*
-     * Convert points from system 1 to system 2.
-     */
-    private Point2D.Double translate(Point p) {
-        double x = p.x * xscale + minX;
-        double y = p.y * yscale + minY;
-
-        return new Point2D.Double(x, y);
+    /* Move the visible area along with the series set by setAutoScroll. */
+    private void scroll() {
+        CCSeries series = scrolled;
+        if (series == null || series.count == scrolledCount) return;
+        scrolledCount = series.count;
+        
+        double x = series.lastX();
+        if (Double.isNaN(x) || x == maxX) return;
+        move(x - (maxX - minX), x, minY, maxY);
     }
     
     
     
-    /* Translate a given point from System 2 to System 1. */
-    private Point translate(Point2D p2d) {
-        return translate(p2d.getX(), p2d.getY());
+    /*
+     * Make sure a frame is painted soon, unless one already is about to be or
+     * a batch is open. May be called from any thread.
+     */
+    private void scheduleFrame() {
+        if (batches.get() > 0) return;
+        if (!framePending.compareAndSet(false, true)) return;
+        
+        if (SwingUtilities.isEventDispatchThread()) {
+            startFrameTimer();
+        } else {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    startFrameTimer();
+                }
+            });
+        }
     }
     
     
     
-    /* Translate the point (x, y) from System 2 to System 1. */
-    private Point translate(double x, double y) {
-        return new Point(translateX(x), translateY(y));
-    }
-    
-    
-    
-    private GradientPaint translateGradientPaint(GradientPaint gp) {
-        Point p1 = translate(gp.getPoint1());
-        Point p2 = translate(gp.getPoint2());
-
-        Color c1 = gp.getColor1();
-        Color c2 = gp.getColor2();
-
-        return new GradientPaint(p1, c1, p2, c2);
+    /* Start the timer painting the next frame. Runs on the EDT. */
+    private void startFrameTimer() {
+        long wait = frameAt + frameNanos - System.nanoTime();
+        frameTimer.setInitialDelay((int) Math.max(0, wait / 1000000));
+        frameTimer.restart();
     }
     
     
@@ -1226,8 +2195,8 @@ public class CCSystem extends JPanel {
         udistX = distX / unitsX;
         udistY = distY / unitsY;
         
-        vbuX = findScale(udistX);
-        vbuY = findScale(udistY);
+        ticksX.update(udistX);
+        ticksY.update(udistY);
         
         /* Find origin */
         double ox = 0;
@@ -1243,32 +2212,10 @@ public class CCSystem extends JPanel {
         if (minY >= 0) oy = minY;
         else if (maxY <= 0) oy = maxY;
         
-        origin2d = new Point2D.Double(ox, oy);
-        origin = translate(origin2d);
-    }
-    
-    
-    
-    private boolean valid(double x, double y) {
-        return validX(x) && validY(y);
-    }
-    
-    
-    
-    private boolean valid(Point2D p2d) {
-        return valid(p2d.getX(), p2d.getY());
-    }
-    
-    
-    
-    private boolean validX(double x) {
-        return (x >= minX && x <= maxX);
-    }
-    
-    
-    
-    private boolean validY(double y) {
-        return (y >= minY && y <= maxY);
+        originX = translateX(ox);
+        originY = translateY(oy);
+        
+        renderer.setViewport(minX, minY, maxX, maxY, getWidth(), getHeight());
     }
     
     
@@ -1282,6 +2229,7 @@ public class CCSystem extends JPanel {
         maxX += zoomX;
         minY -= zoomY;
         maxY += zoomY;
+        viewportReset = true;
     }
     
     
@@ -1332,6 +2280,12 @@ public class CCSystem extends JPanel {
 
         @Override
         public void mouseReleased(MouseEvent e) {
+            /* 
+             * Strips drawn while dragging may be off by a pixel where lines
+             * cross their edges, so draw everything once the drag is over.
+             */
+            invalidateLayers();
+            repaint();
         }
 
         @Override
@@ -1339,13 +2293,7 @@ public class CCSystem extends JPanel {
             int x = e.getX();
             int y = e.getY();
             
-            int dx = lastX - x;
-            int dy = lastY - y;
-
-            double moveX = distX / getWidth() * dx;
-            double moveY = distY / getHeight() * dy;
-            
-            drag(moveX, -moveY);
+            drag(lastX - x, lastY - y);
 
             repaint();
             
@@ -1359,4 +2307,233 @@ public class CCSystem extends JPanel {
             lastY = e.getY();
         }
     }
-}
\ No newline at end of file
+    
+    
+    
+    /**
+     * The objects of a system. Any thread may append objects to the lists at
+     * any time. Drawing only sees the objects in the last snapshot taken with
+     * {@link #update()}; the snapshot and the spatial indexes are guarded by
+     * sceneLock.
+     */
+    private static class Scene {
+        private final AppendList<CCLine> lines;
+        private final AppendList<CCPolygon> polygons;
+        private final AppendList<CCPoint> points;
+        private final AppendList<CCPointCloud> clouds;
+        private final AppendList<CCSeries> series;
+        private final AppendList<CCMappedSeries> mapped;
+        private final AppendList<CCFunction> functions;
+        
+        /* The lines in the snapshot, ready to be clipped all at once */
+        private final LineBatch lineBatch;
+        
+        /* Styles of the objects, and the style of each polygon and point */
+        private final StyleTable styles;
+        private int[] polygonStyles;
+        private int[] pointStyles;
+        
+        /* Spatial indexes over the bounding boxes of polygons and points */
+        private final QuadTree polygonIndex;
+        private final QuadTree pointIndex;
+        
+        /* Number of objects of each kind in the snapshot */
+        private int lineCount;
+        private int polygonCount;
+        private int pointCount;
+        private int cloudCount;
+        private int seriesCount;
+        private int mappedCount;
+        private int functionCount;
+        
+        
+        
+        Scene() {
+            lines = new AppendList<CCLine>();
+            polygons = new AppendList<CCPolygon>();
+            points = new AppendList<CCPoint>();
+            clouds = new AppendList<CCPointCloud>();
+            series = new AppendList<CCSeries>();
+            mapped = new AppendList<CCMappedSeries>();
+            functions = new AppendList<CCFunction>();
+            lineBatch = new LineBatch();
+            styles = new StyleTable();
+            polygonStyles = new int[16];
+            pointStyles = new int[16];
+            polygonIndex = new QuadTree();
+            pointIndex = new QuadTree();
+        }
+        
+        
+        
+        /*
+         * Take a new snapshot, add the lines that are new in it to the
+         * batch, and add the polygons and points that are new in it to the
+         * indexes. Number the styles of all of them.
+         */
+        void update() {
+            lineCount = lines.snapshot();
+            for (int i = lineBatch.size; i < lineCount; i++) {
+                CCLine line = lines.get(i);
+                lineBatch.add(line, styles.id(line.paint, line.stroke, null));
+            }
+            seriesCount = series.snapshot();
+            mappedCount = mapped.snapshot();
+            functionCount = functions.snapshot();
+            cloudCount = clouds.snapshot();
+            
+            int n = polygons.snapshot();
+            if (polygonStyles.length < n) {
+                polygonStyles = Arrays.copyOf(polygonStyles,
+                                    Math.max(n, polygonStyles.length * 2));
+            }
+            for (int i = polygonCount; i < n; i++) {
+                CCPolygon polygon = polygons.get(i);
+                polygonStyles[i] = styles.id(polygon.paint, polygon.stroke,
+                                             polygon.fill);
+                polygonIndex.insert(i, polygon.minX, polygon.minY,
+                                    polygon.maxX, polygon.maxY);
+            }
+            polygonCount = n;
+            
+            n = points.snapshot();
+            if (pointStyles.length < n) {
+                pointStyles = Arrays.copyOf(pointStyles,
+                                    Math.max(n, pointStyles.length * 2));
+            }
+            for (int i = pointCount; i < n; i++) {
+                CCPoint point = points.get(i);
+                pointStyles[i] = styles.id(point.paint, point.stroke, null);
+                pointIndex.insert(i, point.x, point.y, point.x, point.y);
+            }
+            pointCount = n;
+        }
+    }
+    
+    
+    
+    /**
+     * One tile of a polygon, line or point layer, drawn by a thread of
+     * tilePool. The Graphics2D is clipped to the tile and disposed when
+     * the tile is done.
+     */
+    private class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final Graphics2D g2d;
+        private final int layer;
+        private final Renderer renderer;
+        
+        /* The renderer that clipped the lines of the layer */
+        private final Renderer clipper;
+        private final Scene scene;
+        
+        /* Number of the tile in the bins */
+        private final int index;
+        private final double loX;
+        private final double loY;
+        private final double hiX;
+        private final double hiY;
+        
+        /* Whether the tile had anything to show */
+        private boolean drawn;
+        
+        
+        
+        Tile(Graphics2D g2d, int layer, Renderer renderer, Renderer clipper,
+             Scene scene, int index, double loX, double loY, double hiX,
+             double hiY) {
+            this.g2d = g2d;
+            this.layer = layer;
+            this.renderer = renderer;
+            this.clipper = clipper;
+            this.scene = scene;
+            this.index = index;
+            this.loX = loX;
+            this.loY = loY;
+            this.hiX = hiX;
+            this.hiY = hiY;
+        }
+        
+        
+        
+        @Override
+        protected void compute() {
+            try {
+                drawn = drawTile(g2d, layer, renderer, clipper, scene, index,
+                                 loX, loY, hiX, hiY);
+            } finally {
+                g2d.dispose();
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * The polygons, lines and points drawn by the rendering thread for one
+     * visible area. Points go in the upper image since they are drawn above
+     * the grid and the axes.
+     */
+    private static class SceneFrame {
+        private final long generation;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final int width;
+        private final int height;
+        private final int iw;
+        private final int ih;
+        private final double sx;
+        private final double sy;
+        private final boolean niceGraphics;
+        
+        private BufferedImage lower;
+        private BufferedImage upper;
+        
+        
+        
+        SceneFrame(long generation, double minX, double minY, double maxX,
+                   double maxY, int width, int height, int iw, int ih,
+                   double sx, double sy, boolean niceGraphics) {
+            this.generation = generation;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.width = width;
+            this.height = height;
+            this.iw = iw;
+            this.ih = ih;
+            this.sx = sx;
+            this.sy = sy;
+            this.niceGraphics = niceGraphics;
+        }
+        
+        
+        
+        /* Create the images, taking over those of spare if they fit. */
+        void allocate(SceneFrame spare) {
+            if (spare != null && spare.iw == iw && spare.ih == ih) {
+                lower = spare.lower;
+                upper = spare.upper;
+                clear(lower);
+                clear(upper);
+            } else {
+                int type = BufferedImage.TYPE_INT_ARGB_PRE;
+                lower = new BufferedImage(iw, ih, type);
+                upper = new BufferedImage(iw, ih, type);
+            }
+        }
+        
+        
+        
+        private static void clear(BufferedImage image) {
+            Graphics2D g2d = image.createGraphics();
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.dispose();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * One layer of a {@link CCSystem}, drawn into its own translucent back
+ * buffer.
+ * <p>
+ * A layer is only redrawn when it has been marked as dirty. Otherwise the
+ * back buffer from an earlier frame is composited as it is. A layer with
+ * nothing to show is not composited, but keeps its back buffer, so that
+ * redrawing it every frame while it stays empty does not allocate a new
+ * one each time.
+ *
+ * @author Andreas Halle
+ */
+class Layer {
+    private BufferedImage image;
+    private boolean dirty;
+    private boolean empty;
+
+
+
+    Layer() {
+        dirty = true;
+        empty = true;
+    }
+
+
+
+    /**
+     * Return a {@code Graphics2D} for redrawing the layer from scratch. The
+     * back buffer is resized if needed and cleared, and the layer is no longer
+     * dirty. The caller must dispose the returned object.
+     */
+    Graphics2D begin(GraphicsConfiguration gc, int width, int height) {
+        if (image == null || image.getWidth() != width
+                          || image.getHeight() != height) {
+            image = createImage(gc, width, height);
+        }
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(0, 0, width, height);
+        g2d.setComposite(AlphaComposite.SrcOver);
+
+        dirty = false;
+        empty = false;
+        return g2d;
+    }
+
+
+
+    /**
+     * Return a {@code Graphics2D} for redrawing a rectangle of the layer. The
+     * rectangle is cleared and the returned object is clipped to it. The
+     * caller must dispose the returned object.
+     */
+    Graphics2D begin(int x, int y, int width, int height) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.clipRect(x, y, width, height);
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(x, y, width, height);
+        g2d.setComposite(AlphaComposite.SrcOver);
+        return g2d;
+    }
+
+
+
+    /**
+     * Draw the back buffer of the layer scaled to the given size.
+     */
+    void draw(Graphics2D g2d, int width, int height) {
+        if (!empty) g2d.drawImage(image, 0, 0, width, height, null);
+    }
+
+
+
+    /**
+     * Mark the layer as empty, so that it is not composited.
+     */
+    void empty() {
+        dirty = false;
+        empty = true;
+    }
+
+
+
+    /**
+     * Mark the layer as empty and release its back buffer, for a layer that
+     * is drawn elsewhere for a while.
+     */
+    void release() {
+        image = null;
+        empty();
+    }
+
+
+
+    /**
+     * Make sure the layer is redrawn the next time the system is painted.
+     */
+    void invalidate() {
+        dirty = true;
+    }
+
+
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+
+
+    /**
+     * Move the contents of the back buffer by (dx, dy) pixels. The area that
+     * is uncovered keeps its old contents and must be redrawn by the caller.
+     */
+    void shift(int dx, int dy) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.copyArea(0, 0, image.getWidth(), image.getHeight(), dx, dy);
+        g2d.dispose();
+    }
+
+
+
+    /* Create a translucent image suited for the screen the system is on. */
+    private static BufferedImage createImage(GraphicsConfiguration gc,
+                                             int width, int height) {
+        if (gc == null) {
+            return new BufferedImage(width, height,
+                                     BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return gc.createCompatibleImage(width, height,
+                                        Transparency.TRANSLUCENT);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.util.Arrays;
+
+/**
+ * The lines of a {@link CCSystem}, with their equations ax + by = c and their
+ * styles in parallel arrays, so that all of them can be clipped to the
+ * visible area in one pass without visiting the {@link CCLine} objects.
+ *
+ * @author Andreas Halle
+ */
+class LineBatch {
+    double[] a;
+    double[] b;
+    double[] c;
+    Paint[] paint;
+    Stroke[] stroke;
+
+    /* Number of the style of each line in a StyleTable */
+    int[] style;
+    int size;
+
+
+
+    LineBatch() {
+        a = new double[16];
+        b = new double[16];
+        c = new double[16];
+        paint = new Paint[16];
+        stroke = new Stroke[16];
+        style = new int[16];
+    }
+
+
+
+    /**
+     * Add a line with the given style number to the end of the batch.
+     */
+    void add(CCLine line, int style) {
+        if (size == a.length) {
+            int length = size * 2;
+            a = Arrays.copyOf(a, length);
+            b = Arrays.copyOf(b, length);
+            c = Arrays.copyOf(c, length);
+            paint = Arrays.copyOf(paint, length);
+            stroke = Arrays.copyOf(stroke, length);
+            this.style = Arrays.copyOf(this.style, length);
+        }
+
+        a[size] = line.a;
+        b[size] = line.b;
+        c[size] = line.c;
+        paint[size] = line.paint;
+        stroke[size] = line.stroke;
+        this.style[size] = style;
+        size++;
+    }
+}
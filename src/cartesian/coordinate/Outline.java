@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+/**
+ * The vertices of a {@link CCPolygon} simplified for one range of scales,
+ * so that a polygon with many vertices can be drawn zoomed out without
+ * translating the vertices that would land on top of each other.
+ * <p>
+ * The scales are grouped in buckets by their binary exponent: all scales
+ * from {@code 2^e} up to {@code 2^(e+1)} units per pixel share a bucket.
+ * An outline is simplified with the Douglas-Peucker algorithm at the
+ * smallest scale of its bucket, where a pixel is smallest, so it is never
+ * more than one pixel away from the polygon at any scale of the bucket.
+ * <p>
+ * Every polygon keeps the outlines of the last few buckets it was drawn at,
+ * so zooming within a bucket, or back and forth between a few, does not
+ * simplify it again.
+ *
+ * @author Andreas Halle
+ */
+class Outline {
+    /* Polygons with fewer vertices are drawn as they are */
+    static final int MIN_VERTICES = 64;
+
+    /* Number of outlines kept per polygon */
+    static final int CACHED = 4;
+
+    /* Binary exponents of the scales of the bucket */
+    private final int xexp;
+    private final int yexp;
+
+    /* The vertices of the simplified polygon */
+    final double[] xpoints;
+    final double[] ypoints;
+
+
+
+    private Outline(int xexp, int yexp, double[] xpoints, double[] ypoints) {
+        this.xexp = xexp;
+        this.yexp = yexp;
+        this.xpoints = xpoints;
+        this.ypoints = ypoints;
+    }
+
+
+
+    /**
+     * Return the outline of a polygon for the given width and height of a
+     * pixel, or null if the polygon is too small to be worth simplifying.
+     * The outline is taken from the polygon's cache if it is there, and
+     * simplified and added to the cache if not.
+     * <p>
+     * Can be called by several threads for the same polygon at once; only
+     * one of them will simplify it.
+     */
+    static Outline of(CCPolygon poly, double xscale, double yscale) {
+        if (poly.xpoints.length < MIN_VERTICES) return null;
+
+        int xexp = Math.getExponent(xscale);
+        int yexp = Math.getExponent(yscale);
+        Outline[] cache = poly.outlines;
+        synchronized (cache) {
+            for (int i = 0; i < CACHED; i++) {
+                Outline o = cache[i];
+                if (o == null || o.xexp != xexp || o.yexp != yexp) continue;
+
+                /* Move it to the front, so the oldest is replaced first */
+                System.arraycopy(cache, 0, cache, 1, i);
+                cache[0] = o;
+                return o;
+            }
+
+            Outline o = simplify(poly, xexp, yexp);
+            System.arraycopy(cache, 0, cache, 1, CACHED - 1);
+            cache[0] = o;
+            return o;
+        }
+    }
+
+
+
+    /*
+     * Simplify a polygon so that no vertex left out is more than a pixel of
+     * 2^xexp by 2^yexp units away from the simplified edges.
+     */
+    private static Outline simplify(CCPolygon poly, int xexp, int yexp) {
+        double[] xs = poly.xpoints;
+        double[] ys = poly.ypoints;
+        int n = xs.length;
+
+        /* Measure in pixels of the bucket */
+        double sx = Math.scalb(1.0, -xexp);
+        double sy = Math.scalb(1.0, -yexp);
+
+        /* Split the circuit at vertex 0 and the vertex farthest from it */
+        int far = 0;
+        double farthest = -1;
+        for (int i = 1; i < n; i++) {
+            double du = (xs[i] - xs[0]) * sx;
+            double dv = (ys[i] - ys[0]) * sy;
+            double d = du * du + dv * dv;
+            if (d > farthest) {
+                farthest = d;
+                far = i;
+            }
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[far] = true;
+        int kept = 2;
+
+        /*
+         * Chains of vertices still to be simplified, as pairs of the indexes
+         * of their ends. Index n stands for vertex 0, where the circuit ends.
+         * The chains on the stack never overlap, so there are at most n of
+         * them.
+         */
+        int[] stack = new int[2 * n + 4];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = far;
+        stack[top++] = far;
+        stack[top++] = n;
+
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            if (b - a < 2) continue;
+
+            double au = xs[a] * sx;
+            double av = ys[a] * sy;
+            double eu = xs[b % n] * sx - au;
+            double ev = ys[b % n] * sy - av;
+            double length = eu * eu + ev * ev;
+
+            /* Find the vertex farthest from the segment between the ends */
+            int worst = -1;
+            double max = 1;
+            for (int i = a + 1; i < b; i++) {
+                double pu = xs[i] * sx - au;
+                double pv = ys[i] * sy - av;
+                double t = (length > 0) ? (pu * eu + pv * ev) / length : 0;
+                t = Math.max(0, Math.min(1, t));
+                double du = pu - t * eu;
+                double dv = pv - t * ev;
+                double d = du * du + dv * dv;
+                if (d > max) {
+                    max = d;
+                    worst = i;
+                }
+            }
+            if (worst < 0) continue;
+
+            keep[worst] = true;
+            kept++;
+            stack[top++] = a;
+            stack[top++] = worst;
+            stack[top++] = worst;
+            stack[top++] = b;
+        }
+
+        /* Not worth a copy if hardly anything was left out */
+        if (kept > n - n / 8) return new Outline(xexp, yexp, xs, ys);
+
+        double[] xpoints = new double[kept];
+        double[] ypoints = new double[kept];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (!keep[i]) continue;
+            xpoints[m] = xs[i];
+            ypoints[m] = ys[i];
+            m++;
+        }
+        return new Outline(xexp, yexp, xpoints, ypoints);
+    }
+}
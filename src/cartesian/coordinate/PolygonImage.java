@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * A {@link CCPolygon} drawn into an image of its own, so that it can be
+ * drawn again by copying the image as long as the scale of the system stays
+ * the same, which it does while the visible area is moved with the mouse.
+ * <p>
+ * Java2D turns the whole outline of a polygon into pixels every time it is
+ * filled, even when only a strip of it is uncovered, which is slow for
+ * polygons with thousands of vertices. Copying the image takes time that
+ * depends only on the number of pixels drawn.
+ * <p>
+ * The image is placed to the nearest pixel, so the polygon may be drawn up
+ * to a pixel away from where it would otherwise be. Only polygons painted
+ * and filled with plain colors, drawn without rotation, are drawn from an
+ * image; other polygons are drawn as usual.
+ *
+ * @author Andreas Halle
+ */
+class PolygonImage {
+    /* Largest image kept, in device pixels */
+    private static final int MAX_PIXELS = 1 << 21;
+
+    /* Scales with a smaller relative difference are the same */
+    private static final double SAME_SCALE = 1e-9;
+
+    private BufferedImage image;
+
+    /* The scale and device scale the image was drawn at */
+    private double xscale;
+    private double yscale;
+    private double deviceX;
+    private double deviceY;
+    private RenderingHints hints;
+
+    /*
+     * The top left corner of the image, in pixels counted from the origin
+     * of System 2 with y growing downwards.
+     */
+    private double left;
+    private double top;
+
+    /* The image was too large to keep at this scale */
+    private boolean tooLarge;
+
+
+
+    /**
+     * Draw a polygon, whose vertices at the current scale are the first n
+     * of xs and ys, from the image, drawing the image first if the scale or
+     * the rendering hints have changed. Return false, having drawn nothing,
+     * if the polygon cannot be drawn from an image.
+     * <p>
+     * Can be called by several threads for the same polygon at once; only
+     * one of them will draw the image.
+     */
+    synchronized boolean draw(Graphics2D g2d, Renderer r, CCPolygon poly,
+                              double[] xs, double[] ys, int n) {
+        if (!isPlain(poly)) return false;
+        if (!AlphaComposite.SrcOver.equals(g2d.getComposite())) return false;
+
+        AffineTransform at = g2d.getTransform();
+        int kind = at.getType() & ~(AffineTransform.TYPE_TRANSLATION
+                                  | AffineTransform.TYPE_UNIFORM_SCALE
+                                  | AffineTransform.TYPE_GENERAL_SCALE);
+        if (kind != 0) return false;
+
+        double xscale = r.xscale();
+        double yscale = r.yscale();
+        double deviceX = at.getScaleX();
+        double deviceY = at.getScaleY();
+        RenderingHints hints = g2d.getRenderingHints();
+        if (!same(xscale, this.xscale) || !same(yscale, this.yscale)
+                || deviceX != this.deviceX || deviceY != this.deviceY
+                || !hints.equals(this.hints)) {
+            this.xscale = xscale;
+            this.yscale = yscale;
+            this.deviceX = deviceX;
+            this.deviceY = deviceY;
+            this.hints = hints;
+            redraw(poly, xs, ys, n);
+        }
+        if (tooLarge) return false;
+
+        /* Where the corner of the image is in System 1 */
+        int x = (int) Math.round(left - r.inverseX(0) / xscale);
+        int y = (int) Math.round(top + r.inverseY(0) / yscale);
+
+        AffineTransform place = AffineTransform.getTranslateInstance(x, y);
+        place.scale(1 / deviceX, 1 / deviceY);
+        g2d.drawImage(image, place, null);
+        return true;
+    }
+
+
+
+    /* Draw the polygon into a new image at the current scale. */
+    private void redraw(CCPolygon poly, double[] xs, double[] ys, int n) {
+        image = null;
+        tooLarge = true;
+
+        /* The polygon in pixels, relative to the corner of its bounds */
+        double ox = Math.floor(poly.minX / xscale);
+        double oy = Math.floor(-poly.maxY / yscale);
+        double w = Math.ceil(poly.maxX / xscale) - ox;
+        double h = Math.ceil(-poly.minY / yscale) - oy;
+        if (w * h * deviceX * deviceY > MAX_PIXELS) return;
+
+        int[] px = new int[n];
+        int[] py = new int[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = (int) Math.round(xs[i] / xscale - ox);
+            py[i] = (int) Math.round(-ys[i] / yscale - oy);
+        }
+        Polygon polygon = new Polygon(px, py, n);
+
+        boolean edges = poly.stroke != null && poly.paint != null;
+        Rectangle bounds = edges
+                         ? poly.stroke.createStrokedShape(polygon).getBounds()
+                         : polygon.getBounds();
+        bounds.grow(1, 1);
+
+        int iw = (int) Math.ceil(bounds.width * deviceX);
+        int ih = (int) Math.ceil(bounds.height * deviceY);
+        if ((double) iw * ih > MAX_PIXELS) return;
+
+        image = new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHints(hints);
+        g2d.scale(deviceX, deviceY);
+        g2d.translate(-bounds.x, -bounds.y);
+        if (poly.fill != null) {
+            g2d.setPaint(poly.fill);
+            g2d.fill(polygon);
+        }
+        if (edges) {
+            g2d.setStroke(poly.stroke);
+            g2d.setPaint(poly.paint);
+            g2d.draw(polygon);
+        }
+        g2d.dispose();
+
+        left = ox + bounds.x;
+        top = oy + bounds.y;
+        tooLarge = false;
+    }
+
+
+
+    /*
+     * Return true if the polygon looks the same wherever it is drawn, which
+     * it does unless a paint depends on where it is, like a gradient.
+     */
+    private static boolean isPlain(CCPolygon poly) {
+        return (poly.fill == null || poly.fill instanceof Color)
+            && (poly.paint == null || poly.paint instanceof Color);
+    }
+
+
+
+    private static boolean same(double a, double b) {
+        return Math.abs(a - b) <= SAME_SCALE * Math.abs(b);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+/**
+ * The smallest and largest y-coordinate of every bucket of samples of a
+ * {@link CCSeries}, at several resolutions.
+ * <p>
+ * Level 0 has a bucket for every {@code 1 << BASE} samples, and every level
+ * has buckets twice as large as the level below it. Bucket {@code b} of a
+ * level with buckets of {@code 1 << shift} samples holds samples number
+ * {@code b << shift} up to {@code (b + 1) << shift}, counting every sample
+ * ever appended to the series. Like the samples, the buckets of every level
+ * are kept in a ring buffer, with room for every bucket that overlaps the
+ * samples the series keeps.
+ * <p>
+ * A bucket is only meaningful once all of its samples have been appended,
+ * and as long as none of them have been replaced or cleared. It is up to
+ * the reader to check this.
+ *
+ * @author Andreas Halle
+ */
+class Pyramid {
+    /* Level 0 has buckets of 1 << BASE samples */
+    static final int BASE = 3;
+
+    /* Number of levels */
+    final int levels;
+
+    /* Indexed by level, then by bucket modulo the number of buckets */
+    private final double[][] low;
+    private final double[][] high;
+
+    /* True if the lowest sample of the bucket comes after the highest one */
+    private final boolean[][] lowLast;
+
+
+
+    /**
+     * Create a pyramid for a series keeping {@code capacity} samples. The
+     * coarsest level has buckets of at most {@code capacity} samples.
+     */
+    Pyramid(int capacity) {
+        int n = 0;
+        while (n + BASE < 31 && (capacity >> (n + BASE)) > 0) n++;
+        levels = n;
+
+        low = new double[n][];
+        high = new double[n][];
+        lowLast = new boolean[n][];
+        for (int k = 0; k < n; k++) {
+            int buckets = (capacity >> (k + BASE)) + 2;
+            low[k] = new double[buckets];
+            high[k] = new double[buckets];
+            lowLast[k] = new boolean[buckets];
+        }
+    }
+
+
+
+    /**
+     * Add sample number {@code c}, with the given y-coordinate, to the
+     * buckets holding it.
+     * <p>
+     * A sample that is neither the first of its bucket nor a new lowest or
+     * highest one cannot change any coarser bucket either, so appending takes
+     * constant time on average.
+     */
+    void add(long c, double y) {
+        for (int k = 0; k < levels; k++) {
+            int shift = k + BASE;
+            int i = (int) ((c >>> shift) % low[k].length);
+            if ((c & ((1L << shift) - 1)) == 0) {
+                low[k][i] = y;
+                high[k][i] = y;
+                lowLast[k][i] = false;
+            } else if (y < low[k][i]) {
+                low[k][i] = y;
+                lowLast[k][i] = true;
+            } else if (y > high[k][i]) {
+                high[k][i] = y;
+                lowLast[k][i] = false;
+            } else {
+                return;
+            }
+        }
+    }
+
+
+
+    /**
+     * Return the largest y-coordinate in bucket {@code b} of the given level.
+     */
+    double high(int level, long b) {
+        return high[level][(int) (b % high[level].length)];
+    }
+
+
+
+    /**
+     * Return the smallest y-coordinate in bucket {@code b} of the given level.
+     */
+    double low(int level, long b) {
+        return low[level][(int) (b % low[level].length)];
+    }
+
+
+
+    /**
+     * Return true if the sample with the smallest y-coordinate in bucket
+     * {@code b} of the given level comes after the one with the largest.
+     */
+    boolean lowLast(int level, long b) {
+        return lowLast[level][(int) (b % lowLast[level].length)];
+    }
+}
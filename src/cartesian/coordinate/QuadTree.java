@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index over axis-aligned bounding boxes in system 2 (see
+ * {@link CCSystem}).
+ * <p>
+ * Every box is stored together with an integer id, typically the position of
+ * the indexed object in a list. The tree has no fixed bounds; the root grows
+ * whenever a box is inserted outside of it.
+ * <p>
+ * A box is kept in the deepest node whose square contains it completely, so
+ * boxes crossing the center lines of a node stay in that node.
+ * <p>
+ * Queries do not modify the tree. Several threads may query it at the same
+ * time, each with its own {@link Hits}, as long as nothing is inserted.
+ *
+ * @author Andreas Halle
+ */
+class QuadTree {
+    /* Maximum number of boxes in a leaf before it is split */
+    private static final int CAPACITY = 16;
+
+    /* Leaves at this depth are never split */
+    private static final int MAX_DEPTH = 24;
+
+    /* Never grow the root beyond this half-size */
+    private static final double MAX_HALF = 1e300;
+
+    private Node root;
+
+    /* Boxes that cannot be placed in the tree, e.g. with NaN coordinates */
+    private int[] unbounded;
+    private int unboundedCount;
+
+
+
+    /**
+     * Create an empty tree.
+     */
+    QuadTree() {
+        unbounded = new int[4];
+    }
+
+
+
+    /**
+     * Insert a box with the given id.
+     */
+    void insert(int id, double minX, double minY, double maxX, double maxY) {
+        if (!finite(minX, minY, maxX, maxY)) {
+            if (unboundedCount == unbounded.length)
+                unbounded = Arrays.copyOf(unbounded, unboundedCount * 2);
+            unbounded[unboundedCount++] = id;
+            return;
+        }
+
+        if (root == null) {
+            double cx = (minX + maxX) / 2;
+            double cy = (minY + maxY) / 2;
+            double half = Math.max(Math.max(maxX - minX, maxY - minY), 1.0);
+            root = new Node(cx, cy, half, 0);
+        }
+
+        while (!root.contains(minX, minY, maxX, maxY)) {
+            if (root.half >= MAX_HALF) {
+                insert(id, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+                return;
+            }
+            grow((minX + maxX) / 2, (minY + maxY) / 2);
+        }
+
+        root.insert(id, minX, minY, maxX, maxY);
+    }
+
+
+
+    /**
+     * Find the ids of all boxes intersecting the given rectangle.
+     * <p>
+     * The ids are stored in {@code hits} in ascending order, so objects can
+     * be visited in the order they were added.
+     *
+     * @return
+     *         the number of ids found.
+     */
+    int query(double minX, double minY, double maxX, double maxY, Hits hits) {
+        hits.count = 0;
+        for (int i = 0; i < unboundedCount; i++) hits.add(unbounded[i]);
+        if (root != null) query(root, minX, minY, maxX, maxY, hits);
+        Arrays.sort(hits.ids, 0, hits.count);
+        return hits.count;
+    }
+
+
+
+    private static boolean finite(double a, double b, double c, double d) {
+        double sum = a + b + c + d;
+        return !(Double.isNaN(sum) || Double.isInfinite(sum));
+    }
+
+
+
+    /*
+     * Double the size of the root in the direction of (x, y). The old root
+     * becomes one of the quadrants of the new root.
+     */
+    private void grow(double x, double y) {
+        double h = root.half;
+        double sx = (x < root.cx) ? -1 : 1;
+        double sy = (y < root.cy) ? -1 : 1;
+
+        Node node = new Node(root.cx + sx*h, root.cy + sy*h, 2*h, 0);
+        node.children = new Node[4];
+        node.children[node.quadrant(root.cx, root.cy)] = root;
+        root.increaseDepth();
+        root = node;
+    }
+
+
+
+    private void query(Node node, double minX, double minY,
+                       double maxX, double maxY, Hits hits) {
+        if (!node.intersects(minX, minY, maxX, maxY)) return;
+
+        double[] boxes = node.boxes;
+        for (int i = 0, j = 0; i < node.count; i++, j += 4) {
+            if (boxes[j] <= maxX && boxes[j+2] >= minX
+                    && boxes[j+1] <= maxY && boxes[j+3] >= minY) {
+                hits.add(node.ids[i]);
+            }
+        }
+
+        if (node.children == null) return;
+        for (Node child : node.children) {
+            if (child != null) query(child, minX, minY, maxX, maxY, hits);
+        }
+    }
+
+
+
+    /**
+     * The ids found by a query. Only the first {@code count} elements of
+     * {@code ids} are valid. The array grows as needed and is reused from one
+     * query to the next.
+     */
+    static final class Hits {
+        int[] ids;
+        int count;
+
+
+
+        Hits() {
+            ids = new int[64];
+        }
+
+
+
+        private void add(int id) {
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = id;
+        }
+    }
+
+
+
+    /**
+     * A square in the tree, centered at (cx, cy) with sides of length
+     * 2*half.
+     */
+    private static class Node {
+        private final double cx;
+        private final double cy;
+        private final double half;
+        private int depth;
+
+        private int[] ids;
+        private double[] boxes;
+        private int count;
+
+        /* null until the node is split */
+        private Node[] children;
+
+
+
+        Node(double cx, double cy, double half, int depth) {
+            this.cx = cx;
+            this.cy = cy;
+            this.half = half;
+            this.depth = depth;
+            ids = new int[4];
+            boxes = new double[16];
+        }
+
+
+
+        boolean contains(double minX, double minY, double maxX, double maxY) {
+            return minX >= cx - half && maxX < cx + half
+                && minY >= cy - half && maxY < cy + half;
+        }
+
+
+
+        void increaseDepth() {
+            depth++;
+            if (children == null) return;
+            for (Node child : children) {
+                if (child != null) child.increaseDepth();
+            }
+        }
+
+
+
+        void insert(int id, double minX, double minY,
+                            double maxX, double maxY) {
+            Node node = this;
+            while (true) {
+                int q = node.fit(minX, minY, maxX, maxY);
+                if (node.children == null || q < 0) break;
+                node = node.child(q);
+            }
+            node.add(id, minX, minY, maxX, maxY);
+            if (node.children == null && node.count > CAPACITY
+                                      && node.depth < MAX_DEPTH) node.split();
+        }
+
+
+
+        boolean intersects(double minX, double minY, double maxX, double maxY) {
+            return minX < cx + half && maxX >= cx - half
+                && minY < cy + half && maxY >= cy - half;
+        }
+
+
+
+        int quadrant(double x, double y) {
+            return ((x >= cx) ? 1 : 0) + ((y >= cy) ? 2 : 0);
+        }
+
+
+
+        private void add(int id, double minX, double minY,
+                                 double maxX, double maxY) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                boxes = Arrays.copyOf(boxes, count * 8);
+            }
+            int j = count * 4;
+            ids[count] = id;
+            boxes[j] = minX;
+            boxes[j+1] = minY;
+            boxes[j+2] = maxX;
+            boxes[j+3] = maxY;
+            count++;
+        }
+
+
+
+        private Node child(int q) {
+            if (children[q] == null) {
+                double h = half / 2;
+                double x = (q & 1) == 0 ? cx - h : cx + h;
+                double y = (q & 2) == 0 ? cy - h : cy + h;
+                children[q] = new Node(x, y, h, depth + 1);
+            }
+            return children[q];
+        }
+
+
+
+        /*
+         * Return the quadrant that completely contains the given box, or -1 if
+         * the box crosses one of the center lines.
+         */
+        private int fit(double minX, double minY, double maxX, double maxY) {
+            if (minX < cx && maxX >= cx) return -1;
+            if (minY < cy && maxY >= cy) return -1;
+            return quadrant(minX, minY);
+        }
+
+
+
+        /* Push every box that fits in a quadrant down one level. */
+        private void split() {
+            children = new Node[4];
+
+            int[] oldIds = ids;
+            double[] oldBoxes = boxes;
+            int oldCount = count;
+
+            ids = new int[4];
+            boxes = new double[16];
+            count = 0;
+
+            for (int i = 0, j = 0; i < oldCount; i++, j += 4) {
+                double minX = oldBoxes[j];
+                double minY = oldBoxes[j+1];
+                double maxX = oldBoxes[j+2];
+                double maxY = oldBoxes[j+3];
+
+                int q = fit(minX, minY, maxX, maxY);
+                if (q < 0) add(oldIds[i], minX, minY, maxX, maxY);
+                else child(q).add(oldIds[i], minX, minY, maxX, maxY);
+            }
+        }
+    }
+}
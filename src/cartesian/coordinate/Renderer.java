@@ -0,0 +1,1162 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Stroke;
+import java.awt.geom.Ellipse2D;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Draws the objects of a {@link CCSystem} for one position of the visible
+ * area.
+ * <p>
+ * A renderer keeps its own scratch buffers and shapes and reuses them from one
+ * object to the next, so drawing a frame does not allocate anything per
+ * object once the buffers have grown to fit the largest polygon. A renderer
+ * must only be used by one thread at a time.
+ *
+ * @author Andreas Halle
+ */
+class Renderer {
+    /* Number of lines clipped at a time by drawLines */
+    private static final int LINE_BLOCK = 1024;
+
+    /* The visible area in system 2 */
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+
+    /* The ratio between system 1 and system 2 */
+    private double xscale;
+    private double yscale;
+
+    /* Size of system 1, in pixels */
+    private int width;
+    private int height;
+
+    /* 
+     * The frame being drawn is abandoned once cancelledBelow is greater than
+     * its generation. Never cancelled if cancelledBelow is null.
+     */
+    private AtomicLong cancelledBelow;
+    private long generation;
+
+    /* Scratch objects reused for every object drawn */
+    private final Ellipse2D.Double ellipse;
+    private final Polygon polygon;
+    private int[] xline;
+    private int[] yline;
+
+    /* The visible lines of a batch, and their ends */
+    private int[] visible;
+    private int[] ends;
+
+    /* A clipped polygon, and scratch space for clipping it */
+    private double[] clipX;
+    private double[] clipY;
+    private double[] spareX;
+    private double[] spareY;
+
+    /*
+     * The polyline drawSeries is building: the number of vertices in xline
+     * and yline, and the run of samples in the latest column of pixels,
+     * which is not in xline and yline yet.
+     */
+    private int vertices;
+    private boolean running;
+    private int runX;
+    private int runFirstY;
+    private int runLastY;
+    private int runTopY;
+    private int runBottomY;
+    private boolean runTopLast;
+
+    /*
+     * The last sample given to addPoint, in pixels counted from the bottom
+     * left corner and not rounded, and whether there is one.
+     */
+    private double pointX;
+    private double pointY;
+    private boolean pointed;
+
+    /* Result buffer for queries on the spatial indexes */
+    final QuadTree.Hits hits;
+
+
+
+    Renderer() {
+        ellipse = new Ellipse2D.Double();
+        polygon = new Polygon(new int[16], new int[16], 0);
+        xline = new int[16];
+        yline = new int[16];
+        visible = new int[16];
+        ends = new int[4 * 16];
+        clipX = new double[16];
+        clipY = new double[16];
+        spareX = new double[16];
+        spareY = new double[16];
+        hits = new QuadTree.Hits();
+    }
+
+
+
+    /**
+     * Draw the same frame as another renderer: take over its visible area,
+     * surface size and cancellation.
+     */
+    void follow(Renderer r) {
+        minX = r.minX;
+        minY = r.minY;
+        maxX = r.maxX;
+        maxY = r.maxY;
+        xscale = r.xscale;
+        yscale = r.yscale;
+        width = r.width;
+        height = r.height;
+        cancelledBelow = r.cancelledBelow;
+        generation = r.generation;
+    }
+
+
+
+    /**
+     * Return true if the frame being drawn has been cancelled. Callers
+     * drawing many objects should check this now and then and give up on the
+     * frame if it returns true.
+     */
+    boolean isCancelled() {
+        return cancelledBelow != null && cancelledBelow.get() > generation;
+    }
+
+
+
+    /**
+     * Cancel the frame being drawn, which has the given generation, as soon
+     * as {@code cancelledBelow} is greater than the generation.
+     */
+    void setCancellation(AtomicLong cancelledBelow, long generation) {
+        this.cancelledBelow = cancelledBelow;
+        this.generation = generation;
+    }
+
+
+
+    /**
+     * Set the visible area and the size of the surface to draw on.
+     */
+    void setViewport(double minX, double minY, double maxX, double maxY,
+                     int width, int height) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.width = width;
+        this.height = height;
+
+        xscale = (maxX - minX) / width;
+        yscale = (maxY - minY) / height;
+    }
+
+
+
+    /*
+     * Draw lines 0 up to n of a batch, skipping those that do not cross
+     * [loX, hiX] x [loY, hiY]. The lines are first clipped to the visible
+     * area a block at a time, and the visible ones are then drawn in the
+     * order they were added. Return false if the frame was cancelled.
+     */
+    boolean drawLines(Graphics2D g2d, LineBatch lines, int n, double loX,
+                      double loY, double hiX, double hiY) {
+        int m = clipLines(lines, n, loX, loY, hiX, hiY);
+        if (m < 0) return false;
+        return drawClippedLines(g2d, lines, m);
+    }
+
+
+
+    /*
+     * Clip lines 0 up to n of a batch to the visible area, and keep the
+     * ones that cross [loX, hiX] x [loY, hiY] and their ends in System 1
+     * for drawClippedLines or for other renderers to take over. Return the
+     * number of lines kept, or -1 if the frame was cancelled.
+     */
+    int clipLines(LineBatch lines, int n, double loX, double loY,
+                  double hiX, double hiY) {
+        if (visible.length < n) {
+            visible = new int[n];
+            ends = new int[4 * n];
+        }
+
+        int m = 0;
+        for (int from = 0; from < n; from += LINE_BLOCK) {
+            if (isCancelled()) return -1;
+            int to = Math.min(n, from + LINE_BLOCK);
+            m = clipBlock(lines, from, to, m, loX, loY, hiX, hiY);
+        }
+        return m;
+    }
+
+
+
+    /*
+     * Return the numbers of the lines kept by clipLines, in order. Only
+     * used by LineClipCheck, to tell which lines were kept; drawing reads
+     * them directly.
+     */
+    int[] clippedLines() {
+        return visible;
+    }
+
+
+
+    /*
+     * Return the ends in System 1 of the lines kept by clipLines, four
+     * numbers per line.
+     */
+    int[] clippedEnds() {
+        return ends;
+    }
+
+
+
+    /*
+     * Take over the lines kept by another renderer whose numbers, in the
+     * order it kept them, are in a tile of some bins. Return the number of
+     * lines taken, which are then drawn with drawClippedLines.
+     */
+    int takeLines(Renderer r, TileBins bins, int tile) {
+        int from = bins.start(tile);
+        int m = bins.end(tile) - from;
+        if (visible.length < m) {
+            visible = new int[m];
+            ends = new int[4 * m];
+        }
+
+        int[] items = bins.items();
+        for (int j = 0; j < m; j++) {
+            int k = items[from+j];
+            visible[j] = r.visible[k];
+            System.arraycopy(r.ends, 4 * k, ends, 4 * j, 4);
+        }
+        return m;
+    }
+
+
+
+    /*
+     * Draw the first m lines kept by clipLines or takeLines, in order. The
+     * paint and stroke are only set when the style differs from the line
+     * before. Return false if the frame was cancelled.
+     */
+    boolean drawClippedLines(Graphics2D g2d, LineBatch lines, int m) {
+        int[] style = lines.style;
+        int current = -1;
+        for (int j = 0; j < m; j++) {
+            if ((j & 0xff) == 0xff && isCancelled()) return false;
+
+            int i = visible[j];
+            if (style[i] != current) {
+                current = style[i];
+                g2d.setPaint(lines.paint[i]);
+                g2d.setStroke(lines.stroke[i]);
+            }
+            int k = 4 * j;
+            g2d.drawLine(ends[k], ends[k+1], ends[k+2], ends[k+3]);
+        }
+        return true;
+    }
+
+
+
+    /*
+     * Draw the points with the given numbers, in order. The paint and stroke
+     * are only set when the style differs from the point before. Return
+     * false if the frame was cancelled.
+     */
+    boolean drawPoints(Graphics2D g2d, AppendList<CCPoint> points, int[] ids,
+                       int n, int[] style) {
+        int current = -1;
+        for (int j = 0; j < n; j++) {
+            if ((j & 0xff) == 0xff && isCancelled()) return false;
+
+            int id = ids[j];
+            CCPoint point = points.get(id);
+            if (style[id] != current) {
+                current = style[id];
+                g2d.setPaint(point.paint);
+                g2d.setStroke(point.stroke);
+            }
+
+            int x = translateX(point.x);
+            int y = translateY(point.y);
+            ellipse.setFrame(x-2, y-2, 4, 4);
+            g2d.draw(ellipse);
+            g2d.fill(ellipse);
+        }
+        return true;
+    }
+
+
+
+    /*
+     * Draw every point of a point cloud within [loX, hiX] x [loY, hiY] as a
+     * filled square. The paint
+     * is only changed when the color index changes from one point to the
+     * next.
+     *
+     * Points may be added to the cloud while it is drawn. The size is read
+     * before anything else, so the arrays and the bounding box read after
+     * it hold at least that many points, unless the cloud was trimmed or
+     * grown meanwhile; hence the size is also limited to the arrays.
+     */
+    void drawPointCloud(Graphics2D g2d, CCPointCloud cloud, double loX,
+                        double loY, double hiX, double hiY) {
+        int size = cloud.size;
+        if (size == 0) return;
+        if (cloud.maxX < loX || cloud.minX > hiX) return;
+        if (cloud.maxY < loY || cloud.minY > hiY) return;
+
+        double[] xs = cloud.xs;
+        double[] ys = cloud.ys;
+        byte[] colors = cloud.colors;
+        Paint[] palette = cloud.palette;
+        size = Math.min(size, Math.min(xs.length, ys.length));
+        if (colors != null) size = Math.min(size, colors.length);
+        int ps = cloud.pointSize;
+        int off = ps / 2;
+
+        int color = 0;
+        g2d.setPaint(palette[0]);
+        for (int i = 0; i < size; i++) {
+            if ((i & 0xffff) == 0xffff && isCancelled()) return;
+
+            double x = xs[i];
+            double y = ys[i];
+            if (x < loX || x > hiX || y < loY || y > hiY) continue;
+
+            if (colors != null && (colors[i] & 0xff) != color) {
+                color = colors[i] & 0xff;
+                g2d.setPaint(palette[color]);
+            }
+
+            g2d.fillRect(translateX(x) - off, translateY(y) - off, ps, ps);
+        }
+    }
+
+
+
+    /*
+     * Draw the points of a point cloud whose numbers are in a tile of some
+     * bins, in the order they are in the bins. The bins must have been
+     * filled from the same cloud, and since a cloud never shrinks, its
+     * arrays still hold every point in them.
+     */
+    void drawPointCloud(Graphics2D g2d, CCPointCloud cloud, TileBins bins,
+                        int tile) {
+        int from = bins.start(tile);
+        int to = bins.end(tile);
+        if (from == to) return;
+
+        double[] xs = cloud.xs;
+        double[] ys = cloud.ys;
+        byte[] colors = cloud.colors;
+        Paint[] palette = cloud.palette;
+        int[] items = bins.items();
+        int ps = cloud.pointSize;
+        int off = ps / 2;
+
+        int color = 0;
+        g2d.setPaint(palette[0]);
+        for (int j = from; j < to; j++) {
+            if (((j - from) & 0xffff) == 0xffff && isCancelled()) return;
+
+            int i = items[j];
+            if (colors != null && i < colors.length
+                    && (colors[i] & 0xff) != color) {
+                color = colors[i] & 0xff;
+                g2d.setPaint(palette[color]);
+            }
+
+            int x = translateX(xs[i]);
+            int y = translateY(ys[i]);
+            g2d.fillRect(x - off, y - off, ps, ps);
+        }
+    }
+
+
+
+    /*
+     * Copy the ids in a tile of some bins to hits, for drawPolygons or
+     * drawPoints, and return how many there are.
+     */
+    int takeIds(TileBins bins, int tile) {
+        int from = bins.start(tile);
+        int n = bins.end(tile) - from;
+        if (hits.ids.length < n) hits.ids = new int[n];
+        System.arraycopy(bins.items(), from, hits.ids, 0, n);
+        return n;
+    }
+
+
+
+    /*
+     * Draw a series as a polyline from its oldest sample to its newest. The
+     * samples are read from the ring buffer where they are.
+     *
+     * Every run of samples that fall in the same column of pixels is reduced
+     * to its first and last sample and the ones highest and lowest on the
+     * screen, in the order they were appended. The line through them covers
+     * the same pixels as the line through the whole run, so no more than four
+     * vertices per column are drawn however dense the series is. If the
+     * x-coordinates are in order, only the samples within [loX, hiX] and one
+     * on either side are visited, and if the series has a pyramid, whole
+     * buckets of samples within one column are taken from it instead.
+     *
+     * The segments are clipped by addPoint to a visible area away from the
+     * visible area, since samples outside it may be further away in pixels
+     * than an int holds when the system is zoomed far in.
+     */
+    void drawSeries(Graphics2D g2d, CCSeries series, double loX, double hiX) {
+        double[] xs = series.xs;
+        double[] ys = series.ys;
+        int capacity = xs.length;
+
+        long count = series.count;
+        long first = Math.max(series.first, count - capacity);
+        boolean ordered = series.ordered;
+        int n = (int) (count - first);
+        if (n < 2) return;
+
+        int from = 0;
+        int to = n;
+        if (ordered) {
+            from = Math.max(search(xs, first, n, loX, false) - 1, 0);
+            to = Math.min(search(xs, first, n, hiX, true) + 1, n);
+            if (to - from < 2) return;
+        }
+
+        Pyramid pyramid = ordered ? series.pyramid : null;
+        long end = first + to;
+        g2d.setPaint(series.paint);
+        g2d.setStroke(series.stroke);
+        vertices = 0;
+        running = false;
+        pointed = false;
+
+        long c = first + from;
+        int i = (int) (c % capacity);
+        for (int k = 0; c < end; k++) {
+            if ((k & 0xffff) == 0xffff && isCancelled()) return;
+
+            int size = 0;
+            if (pyramid != null) {
+                size = addBucket(g2d, series, pyramid, c, end);
+            }
+            if (size > 0) {
+                c += size;
+                i = (int) (c % capacity);
+                continue;
+            }
+
+            addPoint(g2d, (xs[i] - minX) / xscale, (ys[i] - minY) / yscale);
+            c++;
+            if (++i == capacity) i = 0;
+        }
+        endLine(g2d);
+    }
+
+
+
+    /*
+     * Draw the graph of a function within [loX, hiX]. The graph is broken
+     * off at samples with a y-coordinate of NaN or infinity, and samples far
+     * above or below the visible area are moved to just outside it.
+     */
+    void drawFunction(Graphics2D g2d, CCFunction function, double loX,
+                      double hiX) {
+        CCFunction.Samples s = sampleFunction(function, loX, hiX);
+        long from = Math.max((long) Math.floor(loX / s.width), s.first);
+        long to = Math.min((long) Math.floor(hiX / s.width) + 1, s.end());
+
+        double top = maxY + (maxY - minY);
+        double bottom = minY - (maxY - minY);
+
+        g2d.setPaint(function.paint);
+        g2d.setStroke(function.stroke);
+        vertices = 0;
+        for (long c = from; c < to; c++) {
+            double[] cell = s.cells[(int) (c - s.first)];
+            for (int j = (c == from) ? 0 : 2; j < cell.length; j += 2) {
+                double y = cell[j+1];
+                if (Double.isNaN(y) || Double.isInfinite(y)) {
+                    if (vertices > 1) g2d.drawPolyline(xline, yline, vertices);
+                    vertices = 0;
+                    continue;
+                }
+                y = Math.max(bottom, Math.min(top, y));
+                addVertex(translateX(cell[j]), translateY(y));
+            }
+        }
+        if (vertices > 1) g2d.drawPolyline(xline, yline, vertices);
+    }
+
+
+
+    /*
+     * Return the samples of a function for at least [loX, hiX] at the scale
+     * of this renderer.
+     */
+    CCFunction.Samples sampleFunction(CCFunction function, double loX,
+                                      double hiX) {
+        return function.samples(loX, hiX, xscale, yscale, maxY - minY);
+    }
+
+
+
+    /*
+     * Draw a series stored in a mapped file, like drawSeries. Only the
+     * samples within [loX, hiX] and one on either side are read, and the
+     * segments to the ones on either side are clipped by addPoint.
+     */
+    void drawMappedSeries(Graphics2D g2d, CCMappedSeries series, double loX,
+                          double hiX) {
+        long n = series.size();
+        long from = Math.max(search(series, n, loX, false) - 1, 0);
+        long to = Math.min(search(series, n, hiX, true) + 1, n);
+        if (to - from < 2) return;
+
+        g2d.setPaint(series.paint);
+        g2d.setStroke(series.stroke);
+        vertices = 0;
+        running = false;
+        pointed = false;
+        for (long c = from; c < to; c++) {
+            if ((c & 0xffff) == 0xffff && isCancelled()) return;
+            addPoint(g2d, (series.getX(c) - minX) / xscale,
+                     (series.getY(c) - minY) / yscale);
+        }
+        endLine(g2d);
+    }
+
+
+
+    /*
+     * Draw the polygons with the given numbers, in order. The paint and
+     * stroke are only set when the style differs from the polygon before,
+     * as drawPolygon explains. Return false if the frame was cancelled.
+     */
+    boolean drawPolygons(Graphics2D g2d, AppendList<CCPolygon> polygons,
+                         int[] ids, int n, int[] style) {
+        int current = -1;
+        for (int j = 0; j < n; j++) {
+            if ((j & 0xff) == 0xff && isCancelled()) return false;
+
+            int id = ids[j];
+            boolean set = drawPolygon(g2d, polygons.get(id),
+                                      style[id] != current);
+            current = set ? style[id] : -1;
+        }
+        return true;
+    }
+
+
+
+    /*
+     * Draw a polygon. The paint and stroke are only set if the polygon has
+     * a new style, or if both the fill and the edges are drawn. Return false
+     * if they were left as they were, because the polygon was drawn from an
+     * image or not at all.
+     */
+    private boolean drawPolygon(Graphics2D g2d, CCPolygon poly,
+                                boolean newStyle) {
+        double[] xs = poly.xpoints;
+        double[] ys = poly.ypoints;
+
+        /* Leave out the vertices that make no visible difference */
+        Outline outline = Outline.of(poly, xscale, yscale);
+        if (outline != null) {
+            xs = outline.xpoints;
+            ys = outline.ypoints;
+        }
+        int num = xs.length;
+
+        /* Polygons that keep an image of themselves are drawn from it */
+        if (poly.image != null && poly.image.draw(g2d, this, poly, xs, ys,
+                                                  num)) return false;
+
+        /*
+         * Clip polygons that reach far outside the visible area, so that
+         * their vertices stay small in System 1. The edges the clipping adds
+         * run a whole visible area away from it, where they are never seen.
+         */
+        double w = maxX - minX;
+        double h = maxY - minY;
+        if (poly.minX < minX - w || poly.maxX > maxX + w
+                || poly.minY < minY - h || poly.maxY > maxY + h) {
+            num = clipPolygon(xs, ys, num, minX - w, minY - h,
+                              maxX + w, maxY + h);
+            if (num < 3) return false;
+            xs = clipX;
+            ys = clipY;
+        }
+
+        if (polygon.xpoints.length < num) {
+            int length = Math.max(num, polygon.xpoints.length * 2);
+            polygon.xpoints = new int[length];
+            polygon.ypoints = new int[length];
+        }
+
+        int[] xpoints = polygon.xpoints;
+        int[] ypoints = polygon.ypoints;
+        for (int i = 0; i < num; i++) {
+            xpoints[i] = translateX(xs[i]);
+            ypoints[i] = translateY(ys[i]);
+        }
+        polygon.npoints = num;
+        polygon.invalidate();
+
+        boolean edges = poly.stroke != null && poly.paint != null;
+
+        /* If the polygon has GradientPaint, translate the coordinates of GP */
+        if (poly.fill instanceof GradientPaint) {
+            g2d.setPaint(translateGradientPaint(poly));
+            g2d.fill(polygon);
+        } else if (poly.fill != null) {
+            if (newStyle || edges) g2d.setPaint(poly.fill);
+            g2d.fill(polygon);
+        }
+
+        if (edges) {
+            if (newStyle) g2d.setStroke(poly.stroke);
+            if (newStyle || poly.fill != null) g2d.setPaint(poly.paint);
+            g2d.draw(polygon);
+        }
+        return true;
+    }
+
+
+
+    /*
+     * Clip a polygon of n vertices to [loX, hiX] x [loY, hiY], one side of
+     * the rectangle at a time (Sutherland-Hodgman). Leave the result in
+     * clipX and clipY and return its number of vertices.
+     */
+    private int clipPolygon(double[] xs, double[] ys, int n, double loX,
+                            double loY, double hiX, double hiY) {
+        ensureClipCapacity(2 * n);
+        n = clipSide(xs, ys, n, loX, false, spareX, spareY);
+        ensureClipCapacity(2 * n);
+        n = clipSide(spareX, spareY, n, hiX, true, clipX, clipY);
+        ensureClipCapacity(2 * n);
+        n = clipSide(clipY, clipX, n, loY, false, spareY, spareX);
+        ensureClipCapacity(2 * n);
+        return clipSide(spareY, spareX, n, hiY, true, clipY, clipX);
+    }
+
+
+
+    /*
+     * Clip the polygon with vertices (us[i], vs[i]) to where u >= bound, or
+     * to where u <= bound if upper is true. Store the result in (ou, ov),
+     * which must have room for 2n vertices, and return its number of
+     * vertices.
+     */
+    private static int clipSide(double[] us, double[] vs, int n, double bound,
+                                boolean upper, double[] ou, double[] ov) {
+        if (n == 0) return 0;
+
+        int m = 0;
+        double pu = us[n-1];
+        double pv = vs[n-1];
+        boolean pin = upper ? pu <= bound : pu >= bound;
+        for (int i = 0; i < n; i++) {
+            double u = us[i];
+            double v = vs[i];
+            boolean in = upper ? u <= bound : u >= bound;
+            if (in != pin) {
+                ou[m] = bound;
+                ov[m] = pv + (v - pv) * (bound - pu) / (u - pu);
+                m++;
+            }
+            if (in) {
+                ou[m] = u;
+                ov[m] = v;
+                m++;
+            }
+            pu = u;
+            pv = v;
+            pin = in;
+        }
+        return m;
+    }
+
+
+
+    private void ensureClipCapacity(int capacity) {
+        if (clipX.length >= capacity) return;
+        int length = Math.max(capacity, clipX.length * 2);
+        clipX = Arrays.copyOf(clipX, length);
+        clipY = Arrays.copyOf(clipY, length);
+        spareX = Arrays.copyOf(spareX, length);
+        spareY = Arrays.copyOf(spareY, length);
+    }
+
+
+
+    /* Return the width of a pixel in System 2. */
+    double xscale() {
+        return xscale;
+    }
+
+
+
+    /* Return the height of a pixel in System 2. */
+    double yscale() {
+        return yscale;
+    }
+
+
+
+    /* Translate an x-coordinate from System 1, in pixels, to System 2. */
+    double inverseX(double x) {
+        return minX + x * xscale;
+    }
+
+
+
+    /* Translate a y-coordinate from System 1, in pixels, to System 2. */
+    double inverseY(double y) {
+        return minY + (height - y) * yscale;
+    }
+
+
+
+    /* Translate an x-coordinate from System 2 to System 1, unrounded. */
+    double pixelX(double x) {
+        return (x - minX) / xscale;
+    }
+
+
+
+    /* Translate a y-coordinate from System 2 to System 1, unrounded. */
+    double pixelY(double y) {
+        return height - (y - minY) / yscale;
+    }
+
+
+
+    /*
+     * Translate a single x-coordinate from System 2 to System 1. The result
+     * is only right for coordinates less than about two billion pixels from
+     * the visible area, so coordinates that may be further away must be
+     * clipped first.
+     */
+    int translateX(double x) {
+        return (int) Math.round((x - minX) / xscale);
+    }
+
+
+
+    /*
+     * Translate a single y-coordinate from System 2 to System 1.
+     *
+     * Subtract from height since increasing y goes
+     * south in System 1 but north in System 2. Like translateX, only right
+     * for coordinates less than about two billion pixels away.
+     */
+    int translateY(double y) {
+        return height - (int) Math.round((y - minY) / yscale);
+    }
+
+
+
+    /*
+     * Clip lines from up to to of a batch to the visible area. Store the
+     * numbers of the lines that cross [loX, hiX] x [loY, hiY] in visible,
+     * and their ends in System 1 in ends, from index m on, and return the
+     * new number of visible lines.
+     *
+     * A sloped line ends where it crosses two sides of the visible area.
+     * The crossings are solved from ax + by = c for every side, the way
+     * CCLine.solveForX and solveForY do it, so that the ends round to the
+     * same pixels as when every line was clipped on its own.
+     */
+    private int clipBlock(LineBatch lines, int from, int to, int m,
+                          double loX, double loY, double hiX, double hiY) {
+        double[] as = lines.a;
+        double[] bs = lines.b;
+        double[] cs = lines.c;
+        for (int i = from; i < to; i++) {
+            double a = as[i];
+            double b = bs[i];
+            double c = cs[i];
+
+            double x1, y1, x2, y2;
+            if (b == 0) {
+                x1 = x2 = c / a;
+                if (x1 < minX || x1 > maxX) continue;
+                y1 = minY;
+                y2 = maxY;
+            } else if (a == 0) {
+                y1 = y2 = c / b;
+                if (y1 < minY || y1 > maxY) continue;
+                x1 = minX;
+                x2 = maxX;
+            } else {
+                /* Where the line crosses each side */
+                double left = (c - a * minX) / b;
+                double right = (c - a * maxX) / b;
+                double bottom = (c - b * minY) / a;
+                double top = (c - b * maxY) / a;
+                boolean l = left >= minY && left <= maxY;
+                boolean r = right >= minY && right <= maxY;
+                boolean d = bottom >= minX && bottom <= maxX;
+                boolean u = top >= minX && top <= maxX;
+
+                if (l && r && d && u) {
+                    /* From corner to corner */
+                    x1 = (a < 0) ? minX : maxX;
+                    y1 = minY;
+                    x2 = (a < 0) ? maxX : minX;
+                    y2 = maxY;
+                } else if (l && d) {
+                    x1 = minX;   y1 = left;
+                    x2 = bottom; y2 = minY;
+                } else if (l && u) {
+                    x1 = minX;   y1 = left;
+                    x2 = top;    y2 = maxY;
+                } else if (l && r) {
+                    x1 = minX;   y1 = left;
+                    x2 = maxX;   y2 = right;
+                } else if (d && r) {
+                    x1 = bottom; y1 = minY;
+                    x2 = maxX;   y2 = right;
+                } else if (d && u) {
+                    x1 = bottom; y1 = minY;
+                    x2 = top;    y2 = maxY;
+                } else if (r && u) {
+                    x1 = maxX;   y1 = right;
+                    x2 = top;    y2 = maxY;
+                } else {
+                    continue;
+                }
+            }
+
+            if (Math.max(x1, x2) < loX || Math.min(x1, x2) > hiX
+                    || Math.max(y1, y2) < loY || Math.min(y1, y2) > hiY) {
+                continue;
+            }
+
+            int k = 4 * m;
+            ends[k] = translateX(x1);
+            ends[k+1] = translateY(y1);
+            ends[k+2] = translateX(x2);
+            ends[k+3] = translateY(y2);
+            visible[m++] = i;
+        }
+        return m;
+    }
+
+
+
+    /*
+     * Return the gradient of a polygon in System 1. The translated gradient is
+     * kept on the polygon and only recreated when the visible area changes.
+     */
+    private GradientPaint translateGradientPaint(CCPolygon poly) {
+        Gradient cached = poly.gradient;
+        if (cached != null && cached.minX == minX && cached.minY == minY
+                && cached.xscale == xscale && cached.yscale == yscale
+                && cached.height == height) return cached.paint;
+
+        GradientPaint gp = (GradientPaint) poly.fill;
+        int x1 = translateX(gp.getPoint1().getX());
+        int y1 = translateY(gp.getPoint1().getY());
+        int x2 = translateX(gp.getPoint2().getX());
+        int y2 = translateY(gp.getPoint2().getY());
+
+        GradientPaint paint = new GradientPaint(x1, y1, gp.getColor1(),
+                                                x2, y2, gp.getColor2(),
+                                                gp.isCyclic());
+        poly.gradient = new Gradient(this, paint);
+        return paint;
+    }
+
+
+
+    /*
+     * Add the largest bucket of a pyramid that starts with sample number c,
+     * ends before sample number end and falls within one column of pixels
+     * to the run being built by drawSeries. Return the number of samples in
+     * the bucket, or 0 if there is no such bucket. Buckets that reach
+     * outside the area addPoint clips to are left to addPoint.
+     */
+    private int addBucket(Graphics2D g2d, CCSeries series, Pyramid pyramid,
+                          long c, long end) {
+        int level = Long.numberOfTrailingZeros(c) - Pyramid.BASE;
+        level = Math.min(level, pyramid.levels - 1);
+        if (level < 0) return 0;
+
+        double[] xs = series.xs;
+        double[] ys = series.ys;
+        int capacity = xs.length;
+        int i = (int) (c % capacity);
+        double px = (xs[i] - minX) / xscale;
+        if (!(px >= -width && px <= 2.0 * width)) return 0;
+        int x = (int) Math.round(px);
+
+        for (; level >= 0; level--) {
+            int shift = level + Pyramid.BASE;
+            long size = 1L << shift;
+            if (c + size > end) continue;
+
+            int j = (int) ((c + size - 1) % capacity);
+            double qx = (xs[j] - minX) / xscale;
+            if (!(qx <= 2.0 * width) || (int) Math.round(qx) != x) continue;
+
+            long b = c >>> shift;
+            double low = (pyramid.low(level, b) - minY) / yscale;
+            double high = (pyramid.high(level, b) - minY) / yscale;
+            if (!(low >= -height && high <= 2.0 * height)) return 0;
+
+            addPoint(g2d, px, (ys[i] - minY) / yscale);
+            if (pyramid.lowLast(level, b)) {
+                addSample(x, height - (int) Math.round(high));
+                addSample(x, height - (int) Math.round(low));
+            } else {
+                addSample(x, height - (int) Math.round(low));
+                addSample(x, height - (int) Math.round(high));
+            }
+            addPoint(g2d, qx, (ys[j] - minY) / yscale);
+            return (int) size;
+        }
+        return 0;
+    }
+
+
+
+    /*
+     * Add a sample at (x, y) to the series being drawn by drawSeries or
+     * drawMappedSeries, where x and y are in pixels counted from the bottom
+     * left corner and not rounded. The segment from the sample before is
+     * clipped to a visible area around the visible area, and the polyline
+     * is drawn and a new one started where the segment leaves it, so that
+     * no vertex is further away than an int holds. Segments with an end
+     * that is NaN or infinite are left out.
+     */
+    private void addPoint(Graphics2D g2d, double x, double y) {
+        double px = pointX;
+        double py = pointY;
+        boolean first = !pointed;
+        pointX = x;
+        pointY = y;
+        pointed = true;
+
+        boolean in = x >= -width && x <= 2.0 * width
+                  && y >= -height && y <= 2.0 * height;
+        if (in && (first || (px >= -width && px <= 2.0 * width
+                             && py >= -height && py <= 2.0 * height))) {
+            addSample((int) Math.round(x), height - (int) Math.round(y));
+            return;
+        }
+        if (first) return;
+
+        /* Clip the segment from (px, py) to (x, y), one axis at a time */
+        double dx = x - px;
+        double dy = y - py;
+        double t0 = 0;
+        double t1 = 1;
+        for (int axis = 0; axis < 2; axis++) {
+            double from = (axis == 0) ? px : py;
+            double d = (axis == 0) ? dx : dy;
+            double size = (axis == 0) ? width : height;
+            if (d == 0) {
+                if (!(from >= -size && from <= 2.0 * size)) t1 = -1;
+                continue;
+            }
+            double ta = (-size - from) / d;
+            double tb = (2.0 * size - from) / d;
+            t0 = Math.max(t0, Math.min(ta, tb));
+            t1 = Math.min(t1, Math.max(ta, tb));
+        }
+        if (!(t0 <= t1)) {
+            endLine(g2d);
+            return;
+        }
+
+        if (t0 > 0) {
+            endLine(g2d);
+            addSample((int) Math.round(px + t0 * dx),
+                      height - (int) Math.round(py + t0 * dy));
+        }
+        if (t1 < 1) {
+            addSample((int) Math.round(px + t1 * dx),
+                      height - (int) Math.round(py + t1 * dy));
+        } else {
+            addSample((int) Math.round(x), height - (int) Math.round(y));
+        }
+    }
+
+
+
+    /* Draw the polyline built so far, if any, and start a new one. */
+    private void endLine(Graphics2D g2d) {
+        endRun();
+        if (vertices > 0) g2d.drawPolyline(xline, yline, vertices);
+        vertices = 0;
+    }
+
+
+
+    /*
+     * Add a sample at (x, y) in System 1 to the run being built by
+     * drawSeries. A sample in another column than the run ends the run.
+     */
+    private void addSample(int x, int y) {
+        if (running && x == runX) {
+            runLastY = y;
+            if (y < runTopY) {
+                runTopY = y;
+                runTopLast = true;
+            } else if (y > runBottomY) {
+                runBottomY = y;
+                runTopLast = false;
+            }
+            return;
+        }
+
+        endRun();
+        running = true;
+        runX = x;
+        runFirstY = runLastY = runTopY = runBottomY = y;
+        runTopLast = false;
+    }
+
+
+
+    /*
+     * Append (x, y) to the polyline in xline and yline unless it repeats the
+     * last vertex.
+     */
+    private void addVertex(int x, int y) {
+        int m = vertices;
+        if (m > 0 && xline[m-1] == x && yline[m-1] == y) return;
+        if (m == xline.length) {
+            xline = Arrays.copyOf(xline, m * 2);
+            yline = Arrays.copyOf(yline, m * 2);
+        }
+        xline[m] = x;
+        yline[m] = y;
+        vertices = m + 1;
+    }
+
+
+
+    /*
+     * Append the vertices of the run being built by drawSeries, if any, to
+     * the polyline.
+     */
+    private void endRun() {
+        if (!running) return;
+        running = false;
+
+        addVertex(runX, runFirstY);
+        if (runTopLast) {
+            addVertex(runX, runBottomY);
+            addVertex(runX, runTopY);
+        } else {
+            addVertex(runX, runTopY);
+            addVertex(runX, runBottomY);
+        }
+        addVertex(runX, runLastY);
+    }
+
+
+
+    /*
+     * Return the index of the first of the n samples of a mapped series
+     * whose x-coordinate is at least x, or greater than x if after is true.
+     * Return n if there is none.
+     */
+    private static long search(CCMappedSeries series, long n, double x,
+                               boolean after) {
+        long lo = 0;
+        long hi = n;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            double v = series.getX(mid);
+            if (v > x || (!after && v == x)) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+
+
+    /*
+     * Return the index of the first of the n samples of a ring buffer,
+     * starting with sample number first, whose x-coordinate is at least x,
+     * or greater than x if after is true. Return n if there is none. The
+     * x-coordinates must be in order.
+     */
+    private static int search(double[] xs, long first, int n, double x,
+                              boolean after) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double v = xs[(int) ((first + mid) % xs.length)];
+            if (v > x || (!after && v == x)) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+
+
+    /**
+     * The gradient of a polygon translated to System 1 for one position of
+     * the visible area.
+     */
+    static final class Gradient {
+        private final double minX;
+        private final double minY;
+        private final double xscale;
+        private final double yscale;
+        private final int height;
+        private final GradientPaint paint;
+
+
+
+        private Gradient(Renderer r, GradientPaint paint) {
+            minX = r.minX;
+            minY = r.minY;
+            xscale = r.xscale;
+            yscale = r.yscale;
+            height = r.height;
+            this.paint = paint;
+        }
+    }
+}
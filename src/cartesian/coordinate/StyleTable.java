@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numbers the distinct styles of the objects of a {@link CCSystem}, so that
+ * the paint and stroke are only set when an object is drawn with another
+ * style than the one drawn before it. Two styles are the same if their
+ * paints, strokes and fills are equal.
+ *
+ * @author Andreas Halle
+ */
+class StyleTable {
+    private final Map<Style, Integer> ids;
+
+
+
+    StyleTable() {
+        ids = new HashMap<Style, Integer>();
+    }
+
+
+
+    /**
+     * Return the number of a style. Styles are numbered from 0 in the order
+     * they are first seen. Any of the paint, stroke and fill may be null.
+     */
+    int id(Paint paint, Stroke stroke, Paint fill) {
+        Style style = new Style(paint, stroke, fill);
+        Integer id = ids.get(style);
+        if (id == null) {
+            id = ids.size();
+            ids.put(style, id);
+        }
+        return id;
+    }
+
+
+
+    private static final class Style {
+        private final Paint paint;
+        private final Stroke stroke;
+        private final Paint fill;
+
+
+
+        Style(Paint paint, Stroke stroke, Paint fill) {
+            this.paint = paint;
+            this.stroke = stroke;
+            this.fill = fill;
+        }
+
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Style)) return false;
+            Style s = (Style) o;
+            return same(paint, s.paint) && same(stroke, s.stroke)
+                && same(fill, s.fill);
+        }
+
+
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * hash(paint) + hash(stroke)) + hash(fill);
+        }
+
+
+
+        private static boolean same(Object a, Object b) {
+            return a == b || (a != null && a.equals(b));
+        }
+
+
+
+        private static int hash(Object o) {
+            return (o == null) ? 0 : o.hashCode();
+        }
+    }
+}
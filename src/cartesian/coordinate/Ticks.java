@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.font.FontRenderContext;
+
+/**
+ * The unit lines along one axis of a {@link CCSystem}.
+ * <p>
+ * The value between two unit lines (the step) is always 1, 2 or 5 times a
+ * power of ten, so the value at unit line {@code i} is exactly
+ * <pre>
+ *     i * mantissa * 10^exponent
+ * </pre>
+ * This makes it possible to compute and format every value with integer
+ * arithmetic. Labels and their widths are cached per index and reused until
+ * the step, the font or the way text is rendered changes.
+ *
+ * @author Andreas Halle
+ */
+class Ticks {
+    /* Number of cached labels; must be a power of two */
+    private static final int CACHE_SIZE = 256;
+
+    /* Powers of ten that are exactly representable as doubles */
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i-1] * 10;
+    }
+
+    /* step = mantissa * 10^exponent where mantissa is 1, 2 or 5 */
+    private int mantissa;
+    private int exponent;
+    private double step;
+
+    /* Open addressing hash table from index to label and width */
+    private final int[] keys;
+    private final boolean[] used;
+    private final String[] labels;
+    private final int[] widths;
+    private int cached;
+
+    /* The font and render context the widths were measured in */
+    private Font font;
+    private FontRenderContext frc;
+
+
+
+    Ticks() {
+        keys = new int[CACHE_SIZE];
+        used = new boolean[CACHE_SIZE];
+        labels = new String[CACHE_SIZE];
+        widths = new int[CACHE_SIZE];
+        step = Double.MAX_VALUE;
+    }
+
+
+
+    /**
+     * Return the label of unit line {@code i}.
+     */
+    String label(int i) {
+        return labels[lookup(i)];
+    }
+
+
+
+    /**
+     * Return the value between two unit lines.
+     */
+    double step() {
+        return step;
+    }
+
+
+
+    /**
+     * Round the exact value between two unit lines to a value (of the same
+     * magnitude) that can be written with very few decimals (or lots of
+     * trailing zeroes.)
+     */
+    void update(double distance) {
+        int m;
+        int e;
+        if (distance > 0 && distance <= Double.MAX_VALUE) {
+            e = (int) Math.floor(Math.log10(distance));
+            double quot = distance / pow10(e, 1);
+            if (quot > 5.0) { m = 1; e++; }
+            else if (quot > 2.0) m = 5;
+            else if (quot > 1.0) m = 2;
+            else m = 1;
+        } else {
+            /* Nothing sensible to show; put every unit line at the origin. */
+            m = 0;
+            e = 0;
+        }
+
+        if (m == mantissa && e == exponent) return;
+        mantissa = m;
+        exponent = e;
+        step = (m == 0) ? Double.MAX_VALUE : pow10(e, m);
+        clear();
+    }
+
+
+
+    /**
+     * Return the value at unit line {@code i}.
+     */
+    double value(int i) {
+        if (mantissa == 0) return 0;
+        return pow10(exponent, (long) i * mantissa);
+    }
+
+
+
+    /**
+     * Return the width of the label of unit line {@code i} in the font and
+     * render context of the given {@code FontMetrics}.
+     */
+    int width(int i, FontMetrics fm) {
+        FontRenderContext context = fm.getFontRenderContext();
+        if (fm.getFont() != font || !context.equals(frc)) {
+            clear();
+            font = fm.getFont();
+            frc = context;
+        }
+
+        int slot = lookup(i);
+        if (widths[slot] < 0) widths[slot] = fm.stringWidth(labels[slot]);
+        return widths[slot];
+    }
+
+
+
+    private void clear() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            used[i] = false;
+            labels[i] = null;
+        }
+        cached = 0;
+    }
+
+
+
+    /* Format i * mantissa * 10^exponent. */
+    private String format(int i) {
+        long digits = (long) i * mantissa;
+        double val = value(i);
+
+        /*
+         * Very large and very small values are written in scientific
+         * notation.
+         */
+        if (Math.abs(val) >= 10000000 || exponent < -6) {
+            return Double.toString(val);
+        }
+
+        StringBuilder sb = new StringBuilder(16);
+        if (digits < 0) sb.append('-');
+        String abs = Long.toString(Math.abs(digits));
+
+        if (exponent >= 0) {
+            sb.append(abs);
+            for (int k = 0; k < exponent; k++) sb.append('0');
+        } else {
+            int decimals = -exponent;
+            for (int k = abs.length(); k <= decimals; k++) sb.append('0');
+            sb.append(abs);
+            sb.insert(sb.length() - decimals, '.');
+        }
+        return sb.toString();
+    }
+
+
+
+    /* Return the slot holding unit line i, formatting it if needed. */
+    private int lookup(int i) {
+        if (cached >= CACHE_SIZE * 3 / 4) clear();
+
+        int slot = (i * 0x9E3779B9 >>> 24) & (CACHE_SIZE - 1);
+        while (used[slot]) {
+            if (keys[slot] == i) return slot;
+            slot = (slot + 1) & (CACHE_SIZE - 1);
+        }
+
+        used[slot] = true;
+        keys[slot] = i;
+        labels[slot] = format(i);
+        widths[slot] = -1;
+        cached++;
+        return slot;
+    }
+
+
+
+    /* Return m * 10^e, rounded once. */
+    private static double pow10(int e, long m) {
+        if (e >= 0 && e < POW10.length) return m * POW10[e];
+        if (e < 0 && -e < POW10.length) return m / POW10[-e];
+        return m * Math.pow(10, e);
+    }
+}
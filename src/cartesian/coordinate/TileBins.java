@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.util.Arrays;
+
+/**
+ * The objects of one layer of a {@link CCSystem} sorted into the tiles they
+ * overlap, so that a layer drawn in parallel tiles is clipped and culled
+ * once for the whole frame rather than once for every tile.
+ * <p>
+ * The tiles are squares of {@code size} device pixels, {@code cols} to a
+ * row, numbered row by row. Every object is added as a box or a segment in
+ * device pixels and goes into every tile it overlaps. The objects are added
+ * twice: first to count how many go into each tile, then, after
+ * {@link #place()}, to put them there. The bins of all tiles thus share one
+ * array that never has to grow while it is filled, and every tile keeps its
+ * objects in the order they were added.
+ *
+ * @author Andreas Halle
+ */
+class TileBins {
+    private int cols;
+    private int rows;
+    private int size;
+
+    /* The objects of tile t are items[start[t]] up to items[start[t+1]] */
+    private int[] start;
+    private int[] items;
+
+    /* Where the next object of every tile goes while placing */
+    private int[] next;
+    private boolean placing;
+
+
+
+    TileBins() {
+        start = new int[1];
+        next = new int[0];
+        items = new int[16];
+    }
+
+
+
+    /**
+     * Empty the bins and start counting objects for tiles of the given size.
+     */
+    void begin(int cols, int rows, int size) {
+        this.cols = cols;
+        this.rows = rows;
+        this.size = size;
+
+        int n = cols * rows;
+        if (start.length < n + 1) {
+            start = new int[n + 1];
+            next = new int[n];
+        } else {
+            Arrays.fill(start, 0, n + 1, 0);
+        }
+        placing = false;
+    }
+
+
+
+    /**
+     * Stop counting and make room for the objects counted. They must then
+     * be added again, in the same order.
+     */
+    void place() {
+        int n = cols * rows;
+        for (int t = 0; t < n; t++) start[t+1] += start[t];
+        if (items.length < start[n]) {
+            items = new int[Math.max(start[n], items.length * 2)];
+        }
+        System.arraycopy(start, 0, next, 0, n);
+        placing = true;
+    }
+
+
+
+    /**
+     * Add an object that covers the box [x0, x1] x [y0, y1]. An object
+     * whose box has a NaN side goes into every tile.
+     */
+    void add(int item, double x0, double y0, double x1, double y1) {
+        if (!(x0 <= x1 && y0 <= y1)) {
+            addColumns(item, 0, rows - 1, 0, cols - 1);
+            return;
+        }
+        if (x1 < 0 || y1 < 0 || x0 >= cols * size || y0 >= rows * size) {
+            return;
+        }
+        addColumns(item, row(y0), row(y1), col(x0), col(x1));
+    }
+
+
+
+    /**
+     * Add an object that covers the segment from (x1, y1) to (x2, y2),
+     * widened by margin on every side.
+     */
+    void addSegment(int item, double x1, double y1, double x2, double y2,
+                    double margin) {
+        double top = Math.min(y1, y2) - margin;
+        double bottom = Math.max(y1, y2) + margin;
+        if (bottom < 0 || top >= rows * size) return;
+
+        /* Visit the rows the segment crosses, and the columns in each */
+        int last = row(bottom);
+        for (int r = row(top); r <= last; r++) {
+            double lo = r * size - margin;
+            double hi = (r + 1) * size + margin;
+
+            double xa = x1;
+            double xb = x2;
+            if (y1 != y2) {
+                double ta = clamp((lo - y1) / (y2 - y1));
+                double tb = clamp((hi - y1) / (y2 - y1));
+                xa = x1 + ta * (x2 - x1);
+                xb = x1 + tb * (x2 - x1);
+            }
+            double left = Math.min(xa, xb) - margin;
+            double right = Math.max(xa, xb) + margin;
+            if (right < 0 || left >= cols * size) continue;
+            addColumns(item, r, r, col(left), col(right));
+        }
+    }
+
+
+
+    /* Return the index of the first object of a tile in items(). */
+    int start(int tile) {
+        return start[tile];
+    }
+
+
+
+    /* Return the index after the last object of a tile in items(). */
+    int end(int tile) {
+        return start[tile+1];
+    }
+
+
+
+    /* Return the objects of all tiles, tile by tile. */
+    int[] items() {
+        return items;
+    }
+
+
+
+    private void addColumns(int item, int r0, int r1, int c0, int c1) {
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int t = r * cols + c;
+                if (placing) items[next[t]++] = item;
+                else start[t+1]++;
+            }
+        }
+    }
+
+
+
+    /* Return the column holding x, or the nearest one. */
+    private int col(double x) {
+        return (int) Math.max(0, Math.min(cols - 1, Math.floor(x / size)));
+    }
+
+
+
+    /* Return the row holding y, or the nearest one. */
+    private int row(double y) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor(y / size)));
+    }
+
+
+
+    private static double clamp(double t) {
+        return Math.max(0, Math.min(1, t));
+    }
+}
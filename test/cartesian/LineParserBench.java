@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cartesian.coordinate.CCLine;
+
+/**
+ * Measures how fast {@link LineParser} reads a file of equations in
+ * slope-intercept form, against reading it with
+ * {@code BufferedReader.readLine} and matching every line with
+ * {@link Representiatons#SLOPEINTERCEPTFORM2D}, with groups around the
+ * slope and the y-intercept, and {@code Double.parseDouble}.
+ * <p>
+ * A file of 2000000 equations, about 36 MB, is written to the temporary
+ * directory in the forms the regular expression accepts, and read five
+ * times each way. The file is read from the page cache, so the numbers are
+ * for parsing, not for the disk. The bytes allocated per equation are
+ * printed too; both ways create a {@code CCLine} for every equation. The
+ * lines read both ways must be the same.
+ *
+ * @author Andreas Halle
+ */
+public class LineParserBench {
+    private static final int EQUATIONS = 2000000;
+    private static final int ROUNDS = 5;
+
+    /* SLOPEINTERCEPTFORM2D with groups around the two numbers */
+    private static final Pattern LINE = Pattern.compile(
+            Representiatons.VAR + "\\s*=\\s*(" + Representiatons.NUM
+            + ")\\*?" + Representiatons.VAR + "(?:\\s*\\+\\s*("
+            + Representiatons.NUM + "))?");
+
+    private static com.sun.management.ThreadMXBean threads;
+
+
+
+    public static void main(String[] args)
+            throws IOException, ParseException {
+        threads = (com.sun.management.ThreadMXBean)
+                  ManagementFactory.getThreadMXBean();
+        File file = write();
+        double mb = file.length() / (double) (1 << 20);
+        System.out.println(String.format("LineParserBench: %d equations,"
+                         + " %.0f MB", EQUATIONS, mb));
+
+        double[] parser = new double[ROUNDS];
+        double[] regex = new double[ROUNDS];
+        long parserBytes = 0;
+        long regexBytes = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            double parsed = readParser(file);
+            parser[r] = (System.nanoTime() - start) / 1e9;
+            parserBytes = allocated() - bytes;
+
+            bytes = allocated();
+            start = System.nanoTime();
+            double matched = readRegex(file);
+            regex[r] = (System.nanoTime() - start) / 1e9;
+            regexBytes = allocated() - bytes;
+
+            if (Double.doubleToLongBits(parsed)
+                    != Double.doubleToLongBits(matched)) {
+                System.out.println("LineParserBench: the lines differ");
+                System.exit(1);
+            }
+        }
+        file.delete();
+
+        report("LineParser", mb, parser, parserBytes);
+        report("regex", mb, regex, regexBytes);
+        System.out.println(String.format("speedup %.1f",
+                                         min(regex) / min(parser)));
+        System.exit(0);
+    }
+
+
+
+    /* Print the throughput of one way and the bytes it allocated. */
+    private static void report(String what, double mb, double[] seconds,
+                               long bytes) {
+        System.out.println(String.format("  %-10s first %4.0f MB/s, best"
+                         + " %4.0f MB/s, %4.0f ns and %4d bytes per equation",
+                         what, mb / seconds[0], mb / min(seconds),
+                         min(seconds) * 1e9 / EQUATIONS, bytes / EQUATIONS));
+    }
+
+
+
+    private static double min(double[] a) {
+        double min = a[0];
+        for (double v : a) min = Math.min(min, v);
+        return min;
+    }
+
+
+
+    private static long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+
+    /* Read a file with LineParser, and return the sum of m + b. */
+    private static double readParser(File file)
+            throws IOException, ParseException {
+        FileReader reader = new FileReader(file);
+        double sum = 0;
+        try {
+            LineParser parser = new LineParser(reader, Color.black);
+            CCLine line;
+            while ((line = parser.next()) != null) {
+                sum += line.solveForY(1);
+            }
+        } finally {
+            reader.close();
+        }
+        return sum;
+    }
+
+
+
+    /* Read a file with the regular expression, and return the sum of m + b. */
+    private static double readRegex(File file)
+            throws IOException, ParseException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        double sum = 0;
+        try {
+            Matcher matcher = LINE.matcher("");
+            String s;
+            int offset = 0;
+            while ((s = reader.readLine()) != null) {
+                if (!matcher.reset(s).matches()) {
+                    String e = "malformed equation.";
+                    throw new ParseException(e, offset);
+                }
+                double m = Double.parseDouble(matcher.group(1));
+                String b = matcher.group(2);
+                CCLine line = new CCLine(m, (b == null) ? 0
+                                         : Double.parseDouble(b),
+                                         Color.black);
+                sum += line.solveForY(1);
+                offset += s.length() + 1;
+            }
+        } finally {
+            reader.close();
+        }
+        return sum;
+    }
+
+
+
+    /*
+     * Write a file of random equations in the forms SLOPEINTERCEPTFORM2D
+     * allows: with and without '*' and the y-intercept.
+     */
+    private static File write() throws IOException {
+        File file = File.createTempFile("lines", ".txt");
+        file.deleteOnExit();
+        Random random = new Random(7);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < EQUATIONS; i++) {
+                String m = String.format("%.3f", random.nextDouble() * 100);
+                String b = String.format("%.2f", random.nextDouble() * 1000);
+                switch (i % 4) {
+                case 0: writer.write("y = " + m + "x + " + b); break;
+                case 1: writer.write("y=" + m + "*x+" + b); break;
+                case 2: writer.write("y = " + m + "*x"); break;
+                default: writer.write("f1 = " + m + "x_1 + " + b); break;
+                }
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Random;
+
+import cartesian.coordinate.CCPointCloud;
+
+/**
+ * Measures how many megabytes of points per second {@link Loader} reads,
+ * against reading the same file with {@code BufferedReader.readLine},
+ * {@code String.split} and {@code Double.parseDouble}.
+ * <p>
+ * Two files of about 64 MB are written to the temporary directory and
+ * read five times each: one of short numbers, as written by people and
+ * most instruments, and one of numbers with all 17 digits, as written by
+ * {@code Double.toString}, which Loader hands to
+ * {@code Double.parseDouble}. The files are read from the page cache, so
+ * the numbers are for parsing, not for the disk. The first time includes
+ * compiling the code.
+ *
+ * @author Andreas Halle
+ */
+public class LoaderBench {
+    private static final long SIZE = 64L << 20;
+    private static final int ROUNDS = 5;
+
+    /* Keeps the numbers read by readLines from being optimized away */
+    private static double sink;
+
+
+
+    public static void main(String[] args)
+            throws IOException, ParseException {
+        System.out.println("LoaderBench: "
+                         + Runtime.getRuntime().availableProcessors()
+                         + " processors");
+        measure("short numbers", write(false));
+        measure("17 digits", write(true));
+        System.exit(0);
+    }
+
+
+
+    /* Read a file with both ways and print the throughput of each. */
+    private static void measure(String what, File file)
+            throws IOException, ParseException {
+        double mb = file.length() / (double) (1 << 20);
+        long points = 0;
+        double[] loader = new double[ROUNDS];
+        double[] lines = new double[ROUNDS];
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            CCPointCloud cloud = Loader.readPoints(file, Color.black);
+            loader[r] = (System.nanoTime() - start) / 1e9;
+            points = cloud.size();
+
+            start = System.nanoTime();
+            long n = readLines(file);
+            lines[r] = (System.nanoTime() - start) / 1e9;
+            if (n != points) {
+                System.out.println("LoaderBench: read " + points
+                                 + " points, expected " + n);
+                System.exit(1);
+            }
+        }
+        file.delete();
+
+        System.out.println(String.format("%s, %d points, %.0f MB:", what,
+                                         points, mb));
+        System.out.println(String.format("  Loader   first %4.0f MB/s, best"
+                         + " %4.0f MB/s", mb / loader[0], mb / min(loader)));
+        System.out.println(String.format("  readLine first %4.0f MB/s, best"
+                         + " %4.0f MB/s", mb / lines[0], mb / min(lines)));
+    }
+
+
+
+    private static double min(double[] a) {
+        double min = a[0];
+        for (double v : a) min = Math.min(min, v);
+        return min;
+    }
+
+
+
+    /* Read a file the way Loader replaces, and return the number of points. */
+    private static long readLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        long n = 0;
+        double sum = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                sum += Double.parseDouble(parts[0]);
+                sum += Double.parseDouble(parts[1]);
+                n++;
+            }
+        } finally {
+            reader.close();
+        }
+        sink += sum;
+        return n;
+    }
+
+
+
+    /* Write a file of random points, with all digits or with three. */
+    private static File write(boolean full) throws IOException {
+        File file = File.createTempFile("points", ".csv");
+        file.deleteOnExit();
+        Random random = new Random(5);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            long written = 0;
+            StringBuilder sb = new StringBuilder(64);
+            while (written < SIZE) {
+                sb.setLength(0);
+                double x = random.nextGaussian() * 1000;
+                double y = random.nextGaussian() * 1000;
+                if (full) {
+                    sb.append(x).append(',').append(y);
+                } else {
+                    sb.append(String.format("%.3f,%.3f", x, y));
+                }
+                sb.append('\n');
+                writer.write(sb.toString());
+                written += sb.length();
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that drawing the objects of a scene allocates next to nothing once
+ * the renderer has warmed up. A scene of 100000 lines, points and polygons
+ * is drawn at a new visible area every frame, on one thread, into a
+ * {@link NullGraphics}, and the bytes allocated by the thread per frame are
+ * measured. Java2D is left out since it allocates for every shape it fills
+ * or strokes, which the renderer cannot avoid.
+ * <p>
+ * Polygons filled with a gradient are left out too, since their gradient
+ * has to be translated again whenever the visible area changes.
+ * <p>
+ * Also checks that repainting a system with nothing in it does not create
+ * new back buffers for its empty layers every frame.
+ * <p>
+ * Exits with status 1 if a frame allocates more than the limits. Needs a
+ * JVM whose ThreadMXBean counts allocated bytes, as HotSpot's does.
+ *
+ * @author Andreas Halle
+ */
+public class AllocationCheck {
+    private static final int OBJECTS = 100000;
+    private static final int WARMUP = 50;
+    private static final int FRAMES = 50;
+
+    /* Most bytes a frame may allocate */
+    private static final long OBJECT_LIMIT = 16 << 10;
+    private static final long EMPTY_LIMIT = 64 << 10;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+
+
+    public static void main(String[] args) {
+        threads = (com.sun.management.ThreadMXBean)
+                  ManagementFactory.getThreadMXBean();
+        if (allocated() < 0) {
+            System.out.println("AllocationCheck: allocated bytes are not"
+                             + " counted by this JVM");
+            System.exit(1);
+        }
+
+        boolean ok = true;
+        CCSystem s = scene(OBJECTS);
+        Graphics2D g2d = new NullGraphics();
+        for (int i = 0; i < WARMUP; i++) {
+            move(s, i);
+            s.drawObjectLayers(g2d);
+        }
+        long before = allocated();
+        for (int i = 0; i < FRAMES; i++) {
+            move(s, i);
+            s.drawObjectLayers(g2d);
+        }
+        ok &= report("drawing " + OBJECTS + " objects",
+                     (allocated() - before) / FRAMES, OBJECT_LIMIT);
+
+        s = scene(0);
+        BufferedImage image = new BufferedImage(800, 600,
+                                                BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < WARMUP; i++) paint(s, image, i);
+        before = allocated();
+        for (int i = 0; i < FRAMES; i++) paint(s, image, i);
+        ok &= report("repainting an empty system",
+                     (allocated() - before) / FRAMES, EMPTY_LIMIT);
+
+        System.exit(ok ? 0 : 1);
+    }
+
+
+
+    /* Print the bytes allocated per frame, and return false if too many. */
+    private static boolean report(String what, long bytes, long limit) {
+        System.out.println("AllocationCheck: " + what + ": " + bytes
+                         + " bytes per frame");
+        if (bytes <= limit) return true;
+        System.out.println("AllocationCheck: more than " + limit
+                         + " bytes per frame");
+        return false;
+    }
+
+
+
+    private static long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+
+    /*
+     * Zoom the visible area by a step of i, so that every layer is drawn
+     * again and the objects move between frames.
+     */
+    private static void move(CCSystem s, int i) {
+        double d = 0.5 * (i % 5);
+        s.move(-10 - d, 10 + d, -10 - d, 10 + d);
+    }
+
+
+
+    private static void paint(CCSystem s, BufferedImage image, int i) {
+        move(s, i);
+        Graphics2D g2d = image.createGraphics();
+        s.paint(g2d);
+        g2d.dispose();
+    }
+
+
+
+    /*
+     * A scene of n lines, points and polygons in the styles the renderer
+     * treats differently, spread over and around the visible area.
+     */
+    private static CCSystem scene(int n) {
+        CCSystem s = new CCSystem(-10, -10, 10, 10);
+        s.setSize(800, 600);
+        s.setRenderingThreads(1);
+        Random random = new Random(3);
+        Color[] colors = { Color.red, Color.blue, Color.black };
+
+        s.beginBatch();
+        for (int i = 0; i < n / 10; i++) {
+            s.add(new CCLine(random.nextGaussian(), random.nextGaussian(),
+                             random.nextGaussian() * 10,
+                             colors[random.nextInt(colors.length)]));
+        }
+        for (int i = 0; i < n / 2; i++) {
+            s.add(new CCPoint(random.nextDouble() * 30 - 15,
+                              random.nextDouble() * 30 - 15,
+                              colors[random.nextInt(colors.length)],
+                              new BasicStroke(1f)));
+        }
+        int polygons = n - n / 10 - n / 2;
+        for (int i = 0; i < polygons; i++) {
+            double x = random.nextDouble() * 30 - 15;
+            double y = random.nextDouble() * 30 - 15;
+            double[] xs = { x, x + 0.3, x + 0.2, x - 0.1 };
+            double[] ys = { y, y + 0.1, y + 0.4, y + 0.2 };
+            Color fill = colors[random.nextInt(colors.length)];
+            Stroke stroke = (i % 2 == 0) ? null : new BasicStroke(1f);
+            s.add(new CCPolygon(xs, ys, Color.black, fill, stroke));
+        }
+        s.endBatch();
+        return s;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Measures how long the lines of a frame take to clip, and to clip and draw,
+ * with {@link Renderer#drawLines} against the code that drew every
+ * {@link CCLine} on its own before lines were drawn in batches. That code
+ * is kept below as it was, like in {@link LineClipCheck}.
+ * <p>
+ * 100000 sloped lines in four colors and two widths are drawn while the
+ * visible area is moved, about two thirds of them visible in every frame.
+ * Antialiasing is on, as it is by default. The last frames of both ways are
+ * compared, and the number of pixels that differ is printed.
+ *
+ * @author Andreas Halle
+ */
+public class LineClipBench {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int LINES = 100000;
+    private static final int WARMUP = 50;
+    private static final int FRAMES = 200;
+
+    /* Fewer frames are drawn, since drawing takes far longer */
+    private static final int DRAW_WARMUP = 2;
+    private static final int DRAW_FRAMES = 5;
+
+    /* The visible area and the size of the surface of the current frame */
+    private static double minX;
+    private static double minY;
+    private static double maxX;
+    private static double maxY;
+    private static double xscale;
+    private static double yscale;
+
+    /* Ends of the lines clipped the old way, so the clipping is not dropped */
+    private static int[] ends = new int[4 * LINES];
+
+
+
+    public static void main(String[] args) {
+        System.out.println("LineClipBench: " + LINES + " lines, " + WIDTH
+                         + "x" + HEIGHT);
+        CCLine[] lines = lines();
+        LineBatch batch = new LineBatch();
+        for (int i = 0; i < LINES; i++) batch.add(lines[i], i % 8);
+        Renderer r = new Renderer();
+
+        /* Clipping alone */
+        for (int i = 0; i < WARMUP; i++) {
+            move(r, i);
+            clipOld(lines);
+            r.clipLines(batch, batch.size, minX, minY, maxX, maxY);
+        }
+        long old = 0;
+        long batched = 0;
+        long visible = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            move(r, i);
+            long start = System.nanoTime();
+            int m = clipOld(lines);
+            old += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int n = r.clipLines(batch, batch.size, minX, minY, maxX, maxY);
+            batched += System.nanoTime() - start;
+            if (m != n) {
+                System.out.println("LineClipBench: " + m + " lines visible"
+                                 + " the old way, " + n + " batched");
+                System.exit(1);
+            }
+            visible += n;
+        }
+        System.out.println(String.format("%d lines visible a frame",
+                                         visible / FRAMES));
+        report("clipped", old, batched, FRAMES);
+
+        /* Clipping and drawing */
+        BufferedImage before = image();
+        BufferedImage after = image();
+        for (int i = 0; i < DRAW_WARMUP; i++) {
+            drawOld(r, lines, before, i);
+            drawBatch(r, batch, after, i);
+        }
+        old = 0;
+        batched = 0;
+        for (int i = 0; i < DRAW_FRAMES; i++) {
+            long start = System.nanoTime();
+            drawOld(r, lines, before, i);
+            old += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            drawBatch(r, batch, after, i);
+            batched += System.nanoTime() - start;
+        }
+        report("drawn", old, batched, DRAW_FRAMES);
+
+        int differ = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (before.getRGB(x, y) != after.getRGB(x, y)) differ++;
+            }
+        }
+        System.out.println(differ + " pixels differ in the last frame");
+        System.exit(0);
+    }
+
+
+
+    /* Print the time a frame of both ways and the speedup. */
+    private static void report(String what, long old, long batched,
+                               int frames) {
+        double before = old / 1e6 / frames;
+        double after = batched / 1e6 / frames;
+        System.out.println(String.format("%s one by one: %7.2f ms/frame,"
+                         + " batched: %7.2f ms/frame, speedup %.1f", what,
+                         before, after, before / after));
+    }
+
+
+
+    /* Move the visible area, not zoomed, to step i. */
+    private static void move(Renderer r, int i) {
+        double d = 0.05 * (i % 20);
+        minX = -10 + d;
+        maxX = 10 + d;
+        minY = -10 - d;
+        maxY = 10 - d;
+        xscale = (maxX - minX) / WIDTH;
+        yscale = (maxY - minY) / HEIGHT;
+        r.setViewport(minX, minY, maxX, maxY, WIDTH, HEIGHT);
+    }
+
+
+
+    /* Clear an image and return a Graphics2D with antialiasing on. */
+    private static Graphics2D clear(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(Color.white);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                             RenderingHints.VALUE_ANTIALIAS_ON);
+        return g2d;
+    }
+
+
+
+    private static void drawOld(Renderer r, CCLine[] lines,
+                                BufferedImage image, int i) {
+        move(r, i);
+        Graphics2D g2d = clear(image);
+        for (CCLine line : lines) drawLine(g2d, line);
+        g2d.dispose();
+    }
+
+
+
+    private static void drawBatch(Renderer r, LineBatch batch,
+                                  BufferedImage image, int i) {
+        move(r, i);
+        Graphics2D g2d = clear(image);
+        r.drawLines(g2d, batch, batch.size, minX, minY, maxX, maxY);
+        g2d.dispose();
+    }
+
+
+
+    private static BufferedImage image() {
+        return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+
+
+    /*
+     * Sloped lines through random points of the area the visible area is
+     * moved over, with the styles of a batch repeating every eight lines.
+     */
+    private static CCLine[] lines() {
+        Random random = new Random(21);
+        Color[] colors = { Color.red, Color.blue, Color.black, Color.orange };
+        BasicStroke[] strokes = { new BasicStroke(1f), new BasicStroke(2f) };
+        CCLine[] lines = new CCLine[LINES];
+        for (int i = 0; i < LINES; i++) {
+            double x = random.nextDouble() * 40 - 20;
+            double y = random.nextDouble() * 40 - 20;
+            double a = random.nextGaussian();
+            double b = random.nextGaussian();
+            if (a == 0 || b == 0) a = b = 1;
+            lines[i] = new CCLine(a, b, a * x + b * y, colors[i % 4],
+                                  strokes[(i / 4) % 2]);
+        }
+        return lines;
+    }
+
+
+
+    /*
+     * Clip every line on its own the old way, keep the ends of the visible
+     * ones in ends, and return how many there are.
+     */
+    private static int clipOld(CCLine[] lines) {
+        int m = 0;
+        for (CCLine line : lines) {
+            if (clipSlope(line, m)) m++;
+        }
+        return m;
+    }
+
+
+
+    /* Draw a line the old way. */
+    private static void drawLine(Graphics2D g2d, CCLine line) {
+        g2d.setPaint(line.paint);
+        g2d.setStroke(line.stroke);
+        if (!clipSlope(line, 0)) return;
+        g2d.drawLine(ends[0], ends[1], ends[2], ends[3]);
+    }
+
+
+
+    /*
+     * Clip a sloped line to the visible area like the old drawLineSlope did,
+     * and store its ends in System 1 in ends from index 4 * m on. Return
+     * false if it is not visible.
+     */
+    private static boolean clipSlope(CCLine line, int m) {
+        /* Find intercepts with the display window */
+        double i_minX = line.solveForY(minX);
+        double i_maxX = line.solveForY(maxX);
+        double i_minY = line.solveForX(minY);
+        double i_maxY = line.solveForX(maxY);
+        boolean v_minX = validY(i_minX);
+        boolean v_maxX = validY(i_maxX);
+        boolean v_minY = validX(i_minY);
+        boolean v_maxY = validX(i_maxY);
+
+        double x1, y1, x2, y2;
+        if (v_minX && v_maxX && v_minY && v_maxY) {
+            if (line.a < 0) {
+                x1 = minX; y1 = minY;
+                x2 = maxX; y2 = maxY;
+            } else {
+                x1 = maxX; y1 = minY;
+                x2 = minX; y2 = maxY;
+            }
+        } else if (v_minX && v_minY) {
+            x1 = minX;   y1 = i_minX;
+            x2 = i_minY; y2 = minY;
+        } else if (v_minX && v_maxY) {
+            x1 = minX;   y1 = i_minX;
+            x2 = i_maxY; y2 = maxY;
+        } else if (v_minX && v_maxX) {
+            x1 = minX;   y1 = i_minX;
+            x2 = maxX;   y2 = i_maxX;
+        } else if (v_minY && v_maxX) {
+            x1 = i_minY; y1 = minY;
+            x2 = maxX;   y2 = i_maxX;
+        } else if (v_minY && v_maxY) {
+            x1 = i_minY; y1 = minY;
+            x2 = i_maxY; y2 = maxY;
+        } else if (v_maxX && v_maxY) {
+            x1 = maxX;   y1 = i_maxX;
+            x2 = i_maxY; y2 = maxY;
+        } else {
+            return false;
+        }
+
+        int k = 4 * m;
+        ends[k] = translateX(x1);
+        ends[k+1] = translateY(y1);
+        ends[k+2] = translateX(x2);
+        ends[k+3] = translateY(y2);
+        return true;
+    }
+
+
+
+    private static int translateX(double x) {
+        return (int) Math.round((x - minX) / xscale);
+    }
+
+
+
+    private static int translateY(double y) {
+        return HEIGHT - (int) Math.round((y - minY) / yscale);
+    }
+
+
+
+    private static boolean validX(double x) {
+        return (x >= minX && x <= maxX);
+    }
+
+
+
+    private static boolean validY(double y) {
+        return (y >= minY && y <= maxY);
+    }
+}
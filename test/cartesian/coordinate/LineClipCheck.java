@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.util.Random;
+
+/**
+ * Checks that the ends of the lines clipped by {@link Renderer#clipLines}
+ * are the same pixels as the ends found by the code that drew every
+ * {@link CCLine} on its own before lines were drawn in batches. That code
+ * is kept below as it was.
+ * <p>
+ * Random lines are clipped to random visible areas, some of them through
+ * a corner of the area and some parallel to its sides, and lines through
+ * opposite corners to an area where the crossings are exact. Exits with
+ * status 1 if any line differs.
+ *
+ * @author Andreas Halle
+ */
+public class LineClipCheck {
+    private static final int VIEWS = 2000;
+    private static final int LINES = 500;
+
+    /* The visible area and the size of the surface of the current view */
+    private static double minX;
+    private static double minY;
+    private static double maxX;
+    private static double maxY;
+    private static int height;
+    private static double xscale;
+    private static double yscale;
+
+    private static int failures;
+
+
+
+    public static void main(String[] args) {
+        Random random = new Random(20141017L);
+        Renderer r = new Renderer();
+        long checked = 0;
+
+        for (int v = 0; v < VIEWS; v++) {
+            double w = randomSize(random);
+            double h = (random.nextInt(4) == 0) ? w : randomSize(random);
+            minX = (random.nextDouble() - 0.5) * 1000 * w;
+            minY = (random.nextDouble() - 0.5) * 1000 * h;
+            maxX = minX + w;
+            maxY = minY + h;
+            int width = 1 + random.nextInt(2000);
+            height = 1 + random.nextInt(2000);
+            xscale = (maxX - minX) / width;
+            yscale = (maxY - minY) / height;
+            r.setViewport(minX, minY, maxX, maxY, width, height);
+
+            LineBatch lines = new LineBatch();
+            for (int i = 0; i < LINES; i++) {
+                lines.add(randomLine(random), 0);
+            }
+
+            /* The whole area, and a strip of it as a tile would have */
+            check(r, lines, minX, minY, maxX, maxY);
+            double loY = minY + random.nextDouble() * h;
+            double hiY = loY + random.nextDouble() * (maxY - loY);
+            check(r, lines, minX, loY, maxX, hiY);
+            checked += 2 * LINES;
+        }
+
+        /*
+         * Lines through opposite corners of an area whose sides are whole
+         * numbers, where every side is crossed exactly
+         */
+        minX = minY = -10;
+        maxX = maxY = 10;
+        height = 20;
+        xscale = yscale = 1;
+        r.setViewport(minX, minY, maxX, maxY, 20, 20);
+        LineBatch lines = new LineBatch();
+        lines.add(new CCLine(1, -1, 0), 0);
+        lines.add(new CCLine(-1, 1, 0), 0);
+        lines.add(new CCLine(1, 1, 0), 0);
+        lines.add(new CCLine(-1, -1, 0), 0);
+        check(r, lines, minX, minY, maxX, maxY);
+        checked += lines.size;
+
+        /* Lines parallel to an axis fall where they should for any a or b */
+        lines = new LineBatch();
+        lines.add(new CCLine(2, 0, 4), 0);
+        lines.add(new CCLine(0, -4, 8), 0);
+        r.clipLines(lines, lines.size, minX, minY, maxX, maxY);
+        int[] ends = r.clippedEnds();
+        if (ends[0] != 12 || ends[2] != 12 || ends[5] != 12 || ends[7] != 12) {
+            fail("lines parallel to an axis with a or b other than 1 or -1"
+               + " are misplaced");
+        }
+
+        if (failures > 0) {
+            System.out.println("LineClipCheck: " + failures + " of " + checked
+                             + " lines differ");
+            System.exit(1);
+        }
+        System.out.println("LineClipCheck: " + checked + " lines, ok");
+    }
+
+
+
+    /*
+     * Clip a batch to [loX, hiX] x [loY, hiY] and compare every line with
+     * what the old code drew.
+     */
+    private static void check(Renderer r, LineBatch lines, double loX,
+                              double loY, double hiX, double hiY) {
+        int m = r.clipLines(lines, lines.size, loX, loY, hiX, hiY);
+        int[] visible = r.clippedLines();
+        int[] ends = r.clippedEnds();
+
+        int k = 0;
+        for (int i = 0; i < lines.size; i++) {
+            double[] expected = oldEnds(lines.a[i], lines.b[i], lines.c[i]);
+            boolean crosses = expected != null
+                    && Math.max(expected[0], expected[2]) >= loX
+                    && Math.min(expected[0], expected[2]) <= hiX
+                    && Math.max(expected[1], expected[3]) >= loY
+                    && Math.min(expected[1], expected[3]) <= hiY;
+            boolean kept = k < m && visible[k] == i;
+            if (crosses != kept) {
+                fail("line " + lines.a[i] + "x + " + lines.b[i] + "y = "
+                   + lines.c[i] + (kept ? " kept" : " dropped"));
+                if (kept) k++;
+                continue;
+            }
+            if (!kept) continue;
+
+            int[] pixels = { translateX(expected[0]), translateY(expected[1]),
+                             translateX(expected[2]), translateY(expected[3]) };
+            for (int j = 0; j < 4; j++) {
+                if (ends[4 * k + j] == pixels[j]) continue;
+                fail("line " + lines.a[i] + "x + " + lines.b[i] + "y = "
+                   + lines.c[i] + " ends at " + ends[4 * k] + ","
+                   + ends[4 * k + 1] + " " + ends[4 * k + 2] + ","
+                   + ends[4 * k + 3] + " instead of " + pixels[0] + ","
+                   + pixels[1] + " " + pixels[2] + "," + pixels[3]);
+                break;
+            }
+            k++;
+        }
+    }
+
+
+
+    /* A size of the visible area from 1e-4 up to 1e4 */
+    private static double randomSize(Random random) {
+        double size = Math.pow(10, random.nextInt(8) - 4);
+        return size * (1 + 9 * random.nextDouble());
+    }
+
+
+
+    /*
+     * A line through a random point near the visible area: sloped, through
+     * a corner, or parallel to an axis with a coefficient of 1 or -1, the
+     * only case the old code placed right.
+     */
+    private static CCLine randomLine(Random random) {
+        double x = minX + (random.nextDouble() * 1.4 - 0.2) * (maxX - minX);
+        double y = minY + (random.nextDouble() * 1.4 - 0.2) * (maxY - minY);
+        double sign = random.nextBoolean() ? 1 : -1;
+        switch (random.nextInt(6)) {
+        case 0:
+            return new CCLine(sign, 0, sign * x);
+        case 1:
+            return new CCLine(0, sign, sign * y);
+        case 2:
+            /* Through a corner */
+            x = random.nextBoolean() ? minX : maxX;
+            y = random.nextBoolean() ? minY : maxY;
+            break;
+        default:
+            break;
+        }
+        double a = random.nextGaussian();
+        double b = random.nextGaussian();
+        if (a == 0 || b == 0) a = b = 1;
+        return new CCLine(a, b, a * x + b * y);
+    }
+
+
+
+    /*
+     * The ends of a line in System 2 as the old code found them, or null if
+     * it did not draw the line.
+     */
+    private static double[] oldEnds(double a, double b, double c) {
+        if (b == 0.0) {
+            int mul = (a < 0) ? -1 : 1;
+            double xval = c*mul;
+            if (!validX(xval)) return null;
+            return new double[] { xval, minY, xval, maxY };
+        }
+        if (a == 0.0) {
+            int mul = (b < 0) ? -1 : 1;
+            double yval = c*mul;
+            if (!validY(yval)) return null;
+            return new double[] { minX, yval, maxX, yval };
+        }
+
+        /* Find intercepts with the display window */
+        double i_minX = (c-a*minX)/b;
+        double i_maxX = (c-a*maxX)/b;
+        double i_minY = (c-b*minY)/a;
+        double i_maxY = (c-b*maxY)/a;
+        boolean v_minX = validY(i_minX);
+        boolean v_maxX = validY(i_maxX);
+        boolean v_minY = validX(i_minY);
+        boolean v_maxY = validX(i_maxY);
+
+        double x1, y1, x2, y2;
+        if (v_minX && v_maxX && v_minY && v_maxY) {
+            if (a < 0) {
+                x1 = minX; y1 = minY;
+                x2 = maxX; y2 = maxY;
+            } else {
+                x1 = maxX; y1 = minY;
+                x2 = minX; y2 = maxY;
+            }
+        } else if (v_minX && v_minY) {
+            x1 = minX;   y1 = i_minX;
+            x2 = i_minY; y2 = minY;
+        } else if (v_minX && v_maxY) {
+            x1 = minX;   y1 = i_minX;
+            x2 = i_maxY; y2 = maxY;
+        } else if (v_minX && v_maxX) {
+            x1 = minX;   y1 = i_minX;
+            x2 = maxX;   y2 = i_maxX;
+        } else if (v_minY && v_maxX) {
+            x1 = i_minY; y1 = minY;
+            x2 = maxX;   y2 = i_maxX;
+        } else if (v_minY && v_maxY) {
+            x1 = i_minY; y1 = minY;
+            x2 = i_maxY; y2 = maxY;
+        } else if (v_maxX && v_maxY) {
+            x1 = maxX;   y1 = i_maxX;
+            x2 = i_maxY; y2 = maxY;
+        } else {
+            return null;
+        }
+        return new double[] { x1, y1, x2, y2 };
+    }
+
+
+
+    private static int translateX(double x) {
+        return (int) Math.round((x - minX) / xscale);
+    }
+
+
+
+    private static int translateY(double y) {
+        return height - (int) Math.round((y - minY) / yscale);
+    }
+
+
+
+    private static boolean validX(double x) {
+        return (x >= minX && x <= maxX);
+    }
+
+
+
+    private static boolean validY(double y) {
+        return (y >= minY && y <= maxY);
+    }
+
+
+
+    private static void fail(String message) {
+        if (failures++ < 20) System.out.println(message);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Measures how long a frame takes while a system with one concave polygon
+ * of 10000 vertices is moved, with the polygon drawn from an image of
+ * itself and drawn as usual. The scale stays the same, so the image is
+ * drawn once and then copied. Antialiasing is on, as it is by default.
+ * <p>
+ * The last frames of both ways are also compared, and the number of
+ * pixels that differ is printed. The visible area is moved by whole pixels;
+ * moved by parts of a pixel, the image is drawn up to a pixel away and the
+ * edges of the polygon differ.
+ *
+ * @author Andreas Halle
+ */
+public class PolygonImageBench {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int VERTICES = 10000;
+    private static final int WARMUP = 10;
+    private static final int FRAMES = 30;
+
+
+
+    public static void main(String[] args) {
+        System.out.println("PolygonImageBench: " + VERTICES + " vertices, "
+                         + WIDTH + "x" + HEIGHT);
+        BufferedImage plain = new BufferedImage(WIDTH, HEIGHT,
+                                                BufferedImage.TYPE_INT_ARGB);
+        BufferedImage cached = new BufferedImage(WIDTH, HEIGHT,
+                                                 BufferedImage.TYPE_INT_ARGB);
+        double before = measure("drawn as usual", false, plain);
+        double after = measure("drawn from an image", true, cached);
+        System.out.println(String.format("speedup %.1f", before / after));
+
+        int differ = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (plain.getRGB(x, y) != cached.getRGB(x, y)) differ++;
+            }
+        }
+        System.out.println(differ + " pixels differ in the last frame");
+        System.exit(0);
+    }
+
+
+
+    /* Move a system with the polygon around and print the time a frame. */
+    private static double measure(String what, boolean cached,
+                                  BufferedImage image) {
+        CCSystem s = new CCSystem(-10, -10, 10, 10);
+        s.setSize(WIDTH, HEIGHT);
+        s.setAsyncRendering(false);
+        s.add(polygon(cached));
+        for (int i = 0; i < WARMUP; i++) frame(s, image, i);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) frame(s, image, i);
+        double ms = (System.nanoTime() - start) / 1e6 / FRAMES;
+        System.out.println(String.format("%s: %8.2f ms/frame", what, ms));
+        return ms;
+    }
+
+
+
+    /*
+     * Draw one frame with the visible area moved, not zoomed, by whole
+     * pixels, as it is moved with the mouse.
+     */
+    private static void frame(CCSystem s, BufferedImage image, int i) {
+        double dx = 20.0 / WIDTH * 3 * (i % 20);
+        double dy = 20.0 / HEIGHT * 2 * (i % 20);
+        s.move(-10 + dx, 10 + dx, -10 + dy, 10 + dy);
+        Graphics2D g2d = image.createGraphics();
+        s.paint(g2d);
+        g2d.dispose();
+    }
+
+
+
+    /*
+     * A star whose spikes go in and out 2500 times, with a wobble so that
+     * no two spikes are the same, filling most of the visible area.
+     */
+    private static CCPolygon polygon(boolean cached) {
+        double[] xs = new double[VERTICES];
+        double[] ys = new double[VERTICES];
+        for (int i = 0; i < VERTICES; i++) {
+            double t = 2 * Math.PI * i / VERTICES;
+            double r = (i % 4 < 2) ? 8 : 4 + Math.sin(7 * t);
+            xs[i] = r * Math.cos(t);
+            ys[i] = r * Math.sin(t);
+        }
+        return new CCPolygon(xs, ys, Color.black, new Color(0, 120, 0),
+                             new BasicStroke(1f), cached);
+    }
+}
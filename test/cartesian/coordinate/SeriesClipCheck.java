@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Checks that a series is drawn where it is when the system is zoomed in so
+ * far that its samples outside the visible area are billions of pixels
+ * away, more than an {@code int} holds. Series with ordered and unordered
+ * x-coordinates, with and without a pyramid, and mapped series of the
+ * ordered ones are drawn into an image, and
+ * every pixel drawn must be close to one of the segments of the series, and
+ * enough pixels must be drawn to cover the visible part of it.
+ * <p>
+ * The visible area shrinks to a millionth of a millionth of the distance to
+ * the samples. Further in, the position of the samples in pixels is off by
+ * more than a pixel in a double.
+ * <p>
+ * Exits with status 1 if a series is drawn elsewhere.
+ *
+ * @author Andreas Halle
+ */
+public class SeriesClipCheck {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    /* Pixels drawn this far from the series are wrong */
+    private static final double TOLERANCE = 1.5;
+
+
+
+    public static void main(String[] args) throws IOException {
+        boolean ok = true;
+        for (int e = 0; e <= 12; e += 3) {
+            double zoom = Math.pow(10, -e);
+            double[] xs = { -1, 1 };
+            double[] ys = { -1, 1 };
+            ok &= check("ordered diagonal", zoom, xs, ys, false);
+            ok &= check("diagonal with a pyramid", zoom, xs, ys, true);
+            ok &= checkMapped("mapped diagonal", zoom, xs, ys);
+
+            xs = new double[] { 1, -1 };
+            ys = new double[] { 1, -1 };
+            ok &= check("unordered diagonal", zoom, xs, ys, false);
+
+            /* Out through the right side and back in through the top */
+            xs = new double[] { -1, 1, 0.25 * zoom, -1 };
+            ys = new double[] { -1, 1, 1, 0.25 * zoom };
+            ok &= check("unordered zigzag", zoom, xs, ys, false);
+
+            xs = new double[] { -1, 0.2 * zoom, 1 };
+            ys = new double[] { 0, 0.3 * zoom, -1 };
+            ok &= check("ordered bend", zoom, xs, ys, true);
+            ok &= checkMapped("mapped bend", zoom, xs, ys);
+
+            /* Many samples per column, so that the pyramid is used */
+            int n = 100000;
+            xs = new double[n];
+            ys = new double[n];
+            for (int i = 1; i < n - 1; i++) {
+                xs[i] = ys[i] = zoom * (-3 + 6.0 * i / n);
+            }
+            xs[0] = ys[0] = -1;
+            xs[n-1] = ys[n-1] = 1;
+            ok &= check("dense diagonal with a pyramid", zoom, xs, ys, true);
+            ok &= checkMapped("mapped dense diagonal", zoom, xs, ys);
+        }
+        if (ok) System.out.println("SeriesClipCheck: all series drawn right");
+        System.exit(ok ? 0 : 1);
+    }
+
+
+
+    /*
+     * Draw a series through the given samples with the visible area
+     * [-zoom, zoom] x [-zoom, zoom] and return whether it was drawn right.
+     */
+    private static boolean check(String what, double zoom, double[] xs,
+                                 double[] ys, boolean pyramid) {
+        int n = xs.length;
+        CCSeries series = new CCSeries(n, Color.black, new BasicStroke(1f),
+                                       pyramid);
+        for (int i = 0; i < n; i++) series.append(xs[i], ys[i]);
+
+        Renderer r = renderer(zoom);
+        BufferedImage image = image();
+        Graphics2D g2d = image.createGraphics();
+        r.drawSeries(g2d, series, -zoom, zoom);
+        g2d.dispose();
+        return check(what, zoom, xs, ys, r, image);
+    }
+
+
+
+    /*
+     * Draw a series through the given samples, stored in a mapped file,
+     * like check does.
+     */
+    private static boolean checkMapped(String what, double zoom, double[] xs,
+                                       double[] ys) throws IOException {
+        File file = File.createTempFile("series", ".bin");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(file));
+        try {
+            for (int i = 0; i < xs.length; i++) {
+                out.writeLong(Long.reverseBytes(
+                        Double.doubleToLongBits(xs[i])));
+                out.writeLong(Long.reverseBytes(
+                        Double.doubleToLongBits(ys[i])));
+            }
+        } finally {
+            out.close();
+        }
+        CCMappedSeries series = new CCMappedSeries(file, false, Color.black);
+
+        Renderer r = renderer(zoom);
+        BufferedImage image = image();
+        Graphics2D g2d = image.createGraphics();
+        r.drawMappedSeries(g2d, series, -zoom, zoom);
+        g2d.dispose();
+        return check(what, zoom, xs, ys, r, image);
+    }
+
+
+
+    private static Renderer renderer(double zoom) {
+        Renderer r = new Renderer();
+        r.setViewport(-zoom, -zoom, zoom, zoom, WIDTH, HEIGHT);
+        return r;
+    }
+
+
+
+    private static BufferedImage image() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(Color.white);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+        g2d.dispose();
+        return image;
+    }
+
+
+
+    /*
+     * Return whether the series through the given samples, drawn into an
+     * image by a renderer, was drawn right.
+     */
+    private static boolean check(String what, double zoom, double[] xs,
+                                 double[] ys, Renderer r,
+                                 BufferedImage image) {
+        int n = xs.length;
+
+        /* The series in pixels, unrounded */
+        double[] px = new double[n];
+        double[] py = new double[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = r.pixelX(xs[i]);
+            py[i] = r.pixelY(ys[i]);
+        }
+
+        int drawn = 0;
+        double worst = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (image.getRGB(x, y) == Color.white.getRGB()) continue;
+                drawn++;
+                double d = Double.POSITIVE_INFINITY;
+                for (int i = 1; i < n; i++) {
+                    d = Math.min(d, distance(x, y, px[i-1], py[i-1],
+                                             px[i], py[i]));
+                }
+                worst = Math.max(worst, d);
+            }
+        }
+
+        int expected = (int) visibleLength(px, py) - 2;
+        if (worst <= TOLERANCE && drawn >= expected) return true;
+        System.out.println(String.format("SeriesClipCheck: %s at zoom %g:"
+                         + " %d pixels drawn, %d expected, one %.3g pixels"
+                         + " away", what, zoom, drawn, expected, worst));
+        return false;
+    }
+
+
+
+    /* Return the distance from (x, y) to the segment from p to q. */
+    private static double distance(double x, double y, double px, double py,
+                                   double qx, double qy) {
+        double dx = qx - px;
+        double dy = qy - py;
+        double t = ((x - px) * dx + (y - py) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - (px + t * dx), y - (py + t * dy));
+    }
+
+
+
+    /*
+     * Return the number of columns or rows of pixels, whichever is more,
+     * that the segments of a polyline cover within the image.
+     */
+    private static double visibleLength(double[] px, double[] py) {
+        double length = 0;
+        for (int i = 1; i < px.length; i++) {
+            double t0 = 0;
+            double t1 = 1;
+            double[] from = { px[i-1], py[i-1] };
+            double[] delta = { px[i] - px[i-1], py[i] - py[i-1] };
+            double[] size = { WIDTH - 1, HEIGHT - 1 };
+            for (int k = 0; k < 2; k++) {
+                if (delta[k] == 0) {
+                    if (from[k] < 0 || from[k] > size[k]) t1 = -1;
+                    continue;
+                }
+                double ta = (0 - from[k]) / delta[k];
+                double tb = (size[k] - from[k]) / delta[k];
+                t0 = Math.max(t0, Math.min(ta, tb));
+                t1 = Math.min(t1, Math.max(ta, tb));
+            }
+            if (t0 >= t1) continue;
+            length += (t1 - t0) * Math.max(Math.abs(delta[0]),
+                                           Math.abs(delta[1]));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Andreas Halle
+ *
+ * This file is part of jcoolib
+ *
+ * jcoolib is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jcoolib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public license
+ * along with jcoolib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cartesian.coordinate;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Measures how much faster a large scene of lines, polygons, points and a
+ * point cloud is drawn with more rendering threads. Every frame moves the
+ * visible area a little, so that every layer is drawn again.
+ * <p>
+ * The numbers of threads to measure can be given as arguments; by default
+ * they are the powers of two up to the number of available processors.
+ * The speedup of a number of threads is the time of a frame on one thread
+ * divided by its time of a frame.
+ *
+ * @author Andreas Halle
+ */
+public class TileBench {
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+    private static final int WARMUP = 3;
+    private static final int FRAMES = 10;
+
+
+
+    public static void main(String[] args) {
+        int[] threads;
+        if (args.length > 0) {
+            threads = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                threads[i] = Integer.parseInt(args[i]);
+            }
+        } else {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            int n = 32 - Integer.numberOfLeadingZeros(cpus);
+            threads = new int[n];
+            for (int i = 0; i < n; i++) threads[i] = 1 << i;
+        }
+
+        CCSystem s = scene();
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                                BufferedImage.TYPE_INT_ARGB);
+        System.out.println("TileBench: " + WIDTH + "x" + HEIGHT + ", "
+                         + Runtime.getRuntime().availableProcessors()
+                         + " processors");
+
+        double single = 0;
+        for (int t : threads) {
+            s.setRenderingThreads(t);
+            for (int i = 0; i < WARMUP; i++) frame(s, image, i);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) frame(s, image, i);
+            double ms = (System.nanoTime() - start) / 1e6 / FRAMES;
+            if (t == 1) single = ms;
+
+            String speedup = (single > 0)
+                           ? String.format(", speedup %.2f", single / ms)
+                           : "";
+            System.out.println(String.format("%3d threads: %8.2f ms/frame",
+                                             t, ms) + speedup);
+        }
+        System.exit(0);
+    }
+
+
+
+    /* Draw one frame with the visible area moved by a step of i. */
+    private static void frame(CCSystem s, BufferedImage image, int i) {
+        double d = 0.01 * (i % 7);
+        s.move(-10 + d, 10 + d, -10 - d, 10 - d);
+        Graphics2D g2d = image.createGraphics();
+        s.paint(g2d);
+        g2d.dispose();
+    }
+
+
+
+    /*
+     * 4000 lines, 2000 polygons, 20000 points and a cloud of a million
+     * points spread over the visible area.
+     */
+    private static CCSystem scene() {
+        CCSystem s = new CCSystem(-10, -10, 10, 10);
+        s.setSize(WIDTH, HEIGHT);
+        Random random = new Random(1);
+        Color[] colors = { Color.red, Color.blue, Color.black, Color.orange };
+
+        for (int i = 0; i < 4000; i++) {
+            s.add(new CCLine(random.nextGaussian(), random.nextGaussian(),
+                             random.nextGaussian() * 8,
+                             colors[random.nextInt(colors.length)],
+                             new BasicStroke(1 + random.nextInt(2))));
+        }
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 20 - 10;
+            double y = random.nextDouble() * 20 - 10;
+            double[] xs = { x, x + 0.4, x + 0.1 };
+            double[] ys = { y, y + 0.1, y + 0.5 };
+            s.add(new CCPolygon(xs, ys, Color.black,
+                                new Color(0, 0, 255, 60),
+                                new BasicStroke(1f)));
+        }
+        for (int i = 0; i < 20000; i++) {
+            s.add(new CCPoint(random.nextDouble() * 20 - 10,
+                              random.nextDouble() * 20 - 10));
+        }
+
+        Paint[] palette = { Color.black, Color.red };
+        CCPointCloud cloud = new CCPointCloud(palette, 1 << 20);
+        for (int i = 0; i < 1000000; i++) {
+            cloud.add(random.nextGaussian() * 5, random.nextGaussian() * 5,
+                      random.nextInt(2));
+        }
+        s.add(cloud);
+        return s;
+    }
+}